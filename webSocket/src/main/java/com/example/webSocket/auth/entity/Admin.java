@@ -8,7 +8,9 @@ import lombok.*;
 @Table(name = "admins")
 public class Admin {
     @Id
-    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @GeneratedValue(strategy = GenerationType.TABLE, generator = "admin_id")
+    @TableGenerator(name = "admin_id", table = "id_sequence", pkColumnName = "sequence_name",
+            valueColumnName = "next_val", pkColumnValue = "admins", allocationSize = 50)
     private Long id;
 
     @Column(unique = true, nullable = false)
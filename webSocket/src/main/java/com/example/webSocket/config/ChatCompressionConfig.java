@@ -0,0 +1,21 @@
+package com.example.webSocket.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class ChatCompressionConfig {
+
+    @Bean
+    FilterRegistrationBean<PerMessageDeflateFilter> perMessageDeflateFilter(
+            @Value("${chat.compression.enabled:true}") boolean enabled,
+            @Value("${chat.compression.server-context-takeover:true}") boolean serverContextTakeover,
+            @Value("${chat.compression.client-context-takeover:true}") boolean clientContextTakeover) {
+        FilterRegistrationBean<PerMessageDeflateFilter> registration = new FilterRegistrationBean<>(
+                new PerMessageDeflateFilter(enabled, serverContextTakeover, clientContextTakeover));
+        registration.addUrlPatterns("/chat");
+        return registration;
+    }
+}
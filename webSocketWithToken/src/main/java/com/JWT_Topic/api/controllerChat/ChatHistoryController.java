@@ -0,0 +1,57 @@
+package com.JWT_Topic.api.controllerChat;
+
+import com.JWT_Topic.api.model.ApiResponse;
+import com.JWT_Topic.api.model.ChatHistoryPage;
+import com.JWT_Topic.entity.ChatMessage;
+import com.JWT_Topic.service.ChatHistory;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.security.core.Authentication;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads a direct conversation of the authenticated user backwards, one keyset page at a
+ * time: {@code GET /api/chat/history?with=bob&limit=50}, then again with
+ * {@code before=<nextBefore>} until {@code nextBefore} is null. Each page is a range
+ * scan of the primary key, however deep into the conversation it is.
+ */
+@RestController
+@RequestMapping("/api/chat")
+public class ChatHistoryController {
+
+    private final ChatHistory chatHistory;
+
+    public ChatHistoryController(ChatHistory chatHistory) {
+        this.chatHistory = chatHistory;
+    }
+
+    @GetMapping("/history")
+    public ResponseEntity<ApiResponse> history(Authentication authentication,
+                                               @RequestParam String with,
+                                               @RequestParam(required = false) Long before,
+                                               @RequestParam(defaultValue = "50") int limit) {
+        if (with.isBlank() || limit < 1) {
+            return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                    .body(new ApiResponse(false, "Invalid history request.", null));
+        }
+        int size = Math.min(limit, chatHistory.maxPageSize());
+        // One extra row tells whether an older page exists
+        List<ChatMessage> rows = chatHistory.page(authentication.getName(), with,
+                before != null ? before : Long.MAX_VALUE, size + 1);
+
+        boolean more = rows.size() > size;
+        List<ChatHistoryPage.Entry> messages = new ArrayList<>(Math.min(rows.size(), size));
+        for (ChatMessage row : more ? rows.subList(0, size) : rows) {
+            messages.add(new ChatHistoryPage.Entry(row.getId().getSeq(), row.getSender(), row.getBody(),
+                    row.getCreatedAt()));
+        }
+        Long nextBefore = more ? messages.get(messages.size() - 1).seq() : null;
+        return ResponseEntity.ok(new ApiResponse(true, "History loaded.", new ChatHistoryPage(messages, nextBefore)));
+    }
+}
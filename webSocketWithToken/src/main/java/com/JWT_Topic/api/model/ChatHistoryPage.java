@@ -0,0 +1,14 @@
+package com.JWT_Topic.api.model;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * One page of a conversation, newest first. {@code nextBefore} is the cursor for the
+ * next, older page, or {@code null} when this was the oldest one.
+ */
+public record ChatHistoryPage(List<Entry> messages, Long nextBefore) {
+
+    public record Entry(long seq, String sender, String body, LocalDateTime createdAt) {
+    }
+}
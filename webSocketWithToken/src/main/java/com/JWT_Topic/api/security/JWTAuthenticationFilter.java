@@ -2,6 +2,7 @@ package com.JWT_Topic.api.security;
 
  import com.JWT_Topic.service.JWTService;
  import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -32,8 +33,10 @@ public class JWTAuthenticationFilter extends OncePerRequestFilter {
         if (authHeader != null && authHeader.startsWith("Bearer ")) {
             String token = authHeader.substring(7);
             try {
-                String username = jwtService.getUsername(token);
-                String role = jwtService.getRole(token);
+                // Verify the signature and expiry before trusting any claim
+                DecodedJWT jwt = jwtService.verify(token);
+                String username = jwt.getClaim("USERNAME").asString();
+                String role = jwt.getClaim("ROLE").asString();
 
                 if (username != null && role != null) {
                     UsernamePasswordAuthenticationToken authentication =
@@ -0,0 +1,165 @@
+package com.JWT_Topic.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Session directory replicated over the {@link ClusterBus}: every node announces its own
+ * users with {@code JOIN}/{@code LEAVE} and keeps a copy of what the others announced.
+ * A full {@code SYNC} goes to every peer when its link comes up and then periodically,
+ * which repairs anything lost while a link was down; a node that goes down is forgotten.
+ * The first {@code SYNC} from a node is answered with one, so a node whose directory
+ * subscribed after its links came up does not wait for the next periodic sync.
+ * Every user gained or lost this way, one by one or through a sync, is reported to the
+ * {@link SessionDirectory.Listener}s.
+ */
+public class BusSessionDirectory implements SessionDirectory, ClusterBus.Listener, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BusSessionDirectory.class);
+
+    private final ClusterBus bus;
+    private final Set<String> local = ConcurrentHashMap.newKeySet();
+    private final Map<String, Set<String>> nodesByUser = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> usersByNode = new ConcurrentHashMap<>();
+    private final List<SessionDirectory.Listener> listeners = new CopyOnWriteArrayList<>();
+    /** Nodes a SYNC came from since their link last went down. */
+    private final Set<String> synced = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService syncer;
+
+    public BusSessionDirectory(ClusterBus bus, long syncIntervalMillis) {
+        this.bus = bus;
+        bus.subscribe(this);
+        this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-directory-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncer.scheduleWithFixedDelay(this::sync, 0, syncIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void online(String username) {
+        if (local.add(username)) {
+            bus.broadcast(ClusterMessage.join(username));
+        }
+    }
+
+    @Override
+    public void offline(String username) {
+        if (local.remove(username)) {
+            bus.broadcast(ClusterMessage.leave(username));
+        }
+    }
+
+    @Override
+    public Set<String> remoteNodes(String username) {
+        return nodesByUser.getOrDefault(username, Set.of());
+    }
+
+    @Override
+    public void subscribe(SessionDirectory.Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void onMessage(String node, ClusterMessage message) {
+        switch (message.type()) {
+            case JOIN -> add(node, message.username());
+            case LEAVE -> remove(node, message.username());
+            case SYNC -> {
+                replace(node, new HashSet<>(message.usernames()));
+                if (synced.add(node)) {
+                    bus.send(node, ClusterMessage.sync(local));
+                }
+            }
+            default -> {
+                // chat traffic is handled by the delivery listener
+            }
+        }
+    }
+
+    @Override
+    public void onPeerUp(String node) {
+        bus.send(node, ClusterMessage.sync(local));
+    }
+
+    @Override
+    public void onPeerDown(String node) {
+        synced.remove(node);
+        replace(node, Set.of());
+    }
+
+    @Override
+    public void close() {
+        syncer.shutdown();
+    }
+
+    private void sync() {
+        try {
+            bus.broadcast(ClusterMessage.sync(local));
+        } catch (RuntimeException ex) {
+            log.warn("Session directory sync failed", ex);
+        }
+    }
+
+    private void add(String node, String username) {
+        usersByNode.computeIfAbsent(node, k -> ConcurrentHashMap.newKeySet()).add(username);
+        // Add inside compute, so a concurrent remove cannot drop the set this node went into
+        boolean[] added = {false};
+        nodesByUser.compute(username, (k, nodes) -> {
+            Set<String> current = nodes != null ? nodes : ConcurrentHashMap.newKeySet();
+            added[0] = current.add(node);
+            return current;
+        });
+        if (added[0]) {
+            changed(username);
+        }
+    }
+
+    private void remove(String node, String username) {
+        Set<String> users = usersByNode.get(node);
+        if (users != null) {
+            users.remove(username);
+        }
+        boolean[] removed = {false};
+        nodesByUser.computeIfPresent(username, (k, nodes) -> {
+            removed[0] = nodes.remove(node);
+            return nodes.isEmpty() ? null : nodes;
+        });
+        if (removed[0]) {
+            changed(username);
+        }
+    }
+
+    private void changed(String username) {
+        for (SessionDirectory.Listener listener : listeners) {
+            try {
+                listener.remoteNodesChanged(username);
+            } catch (RuntimeException ex) {
+                log.warn("Session directory listener failed for {}", username, ex);
+            }
+        }
+    }
+
+    private void replace(String node, Set<String> usernames) {
+        Set<String> previous = usersByNode.getOrDefault(node, Set.of());
+        for (String username : previous) {
+            if (!usernames.contains(username)) {
+                remove(node, username);
+            }
+        }
+        for (String username : usernames) {
+            add(node, username);
+        }
+    }
+}
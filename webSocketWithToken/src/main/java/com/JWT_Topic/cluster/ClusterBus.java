@@ -0,0 +1,39 @@
+package com.JWT_Topic.cluster;
+
+/**
+ * Carries {@link ClusterMessage}s between chat nodes. Messages to one node arrive in the
+ * order they were sent; {@link #send} never blocks, a message that cannot be queued is
+ * refused instead.
+ */
+public interface ClusterBus extends AutoCloseable {
+
+    String localNode();
+
+    void subscribe(Listener listener);
+
+    /**
+     * Queues the message for the node; {@code false} if the node is unknown or its queue is full.
+     */
+    boolean send(String node, ClusterMessage message);
+
+    /**
+     * Queues the message for every other node.
+     */
+    void broadcast(ClusterMessage message);
+
+    @Override
+    void close();
+
+    interface Listener {
+
+        void onMessage(String node, ClusterMessage message);
+
+        /** The connection to the node was (re)established. */
+        default void onPeerUp(String node) {
+        }
+
+        /** The node went away; whatever it announced is stale. */
+        default void onPeerDown(String node) {
+        }
+    }
+}
@@ -0,0 +1,128 @@
+package com.JWT_Topic.cluster;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * What nodes tell each other: chat messages for users connected to the receiving node and
+ * their acknowledgements, ephemeral signals such as typing indicators, the session
+ * directory updates ({@code JOIN}, {@code LEAVE}, full {@code SYNC}), notices of offline
+ * messages that became visible in the shared store ({@code STORED}) and newly
+ * registered usernames ({@code REGISTERED}).
+ */
+public record ClusterMessage(Type type, String username, long id, String line, byte[] frame, List<String> usernames) {
+
+    public enum Type {
+        /** Deliver {@code line} and/or the binary {@code frame}, message {@code id}, to {@code username}. */
+        DELIVER,
+        /** {@code username} connected to the sending node. */
+        JOIN,
+        /** {@code username} has no session left on the sending node. */
+        LEAVE,
+        /** {@code usernames} is everyone connected to the sending node. */
+        SYNC,
+        /** Ephemeral JSON frame {@code line} for the text sessions of {@code username}; never stored. */
+        SIGNAL,
+        /** The shared offline store has new messages for {@code usernames}. */
+        STORED,
+        /** The {@code DELIVER} of message {@code id} to {@code username} was delivered or stored. */
+        ACK,
+        /** {@code username} was registered through the sending node. */
+        REGISTERED
+    }
+
+    public static ClusterMessage deliver(String username, long id, String line, byte[] frame) {
+        return new ClusterMessage(Type.DELIVER, username, id, line, frame, List.of());
+    }
+
+    public static ClusterMessage ack(String username, long id) {
+        return new ClusterMessage(Type.ACK, username, id, null, null, List.of());
+    }
+
+    public static ClusterMessage registered(String username) {
+        return new ClusterMessage(Type.REGISTERED, username, 0L, null, null, List.of());
+    }
+
+    public static ClusterMessage signal(String username, String frame) {
+        return new ClusterMessage(Type.SIGNAL, username, 0L, frame, null, List.of());
+    }
+
+    public static ClusterMessage join(String username) {
+        return new ClusterMessage(Type.JOIN, username, 0L, null, null, List.of());
+    }
+
+    public static ClusterMessage leave(String username) {
+        return new ClusterMessage(Type.LEAVE, username, 0L, null, null, List.of());
+    }
+
+    public static ClusterMessage sync(Collection<String> usernames) {
+        return new ClusterMessage(Type.SYNC, null, 0L, null, null, List.copyOf(usernames));
+    }
+
+    public static ClusterMessage stored(Collection<String> usernames) {
+        return new ClusterMessage(Type.STORED, null, 0L, null, null, List.copyOf(usernames));
+    }
+
+    /**
+     * {@code [byte type][str username][long id][str line][bytes frame][int n][str usernames...]},
+     * strings and byte arrays length-prefixed, -1 for {@code null}.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        out.writeByte(type.ordinal());
+        writeString(out, username);
+        out.writeLong(id);
+        writeString(out, line);
+        writeBytes(out, frame);
+        out.writeInt(usernames.size());
+        for (String name : usernames) {
+            writeString(out, name);
+        }
+    }
+
+    public static ClusterMessage readFrom(DataInputStream in) throws IOException {
+        Type type = Type.values()[in.readUnsignedByte()];
+        String username = readString(in);
+        long id = in.readLong();
+        String line = readString(in);
+        byte[] frame = readBytes(in);
+        int count = in.readInt();
+        List<String> usernames = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            usernames.add(readString(in));
+        }
+        return new ClusterMessage(type, username, id, line, frame, usernames);
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
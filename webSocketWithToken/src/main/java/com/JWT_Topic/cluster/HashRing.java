@@ -0,0 +1,147 @@
+package com.JWT_Topic.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Consistent-hash ring that maps a key (a username, or a conversation pair from
+ * {@link #pairKey}) to the node that should serve it.
+ * <p>
+ * Every node is placed on the ring at {@code virtualNodes} points, which evens out the
+ * load; adding or removing a node only moves the keys of the arcs it gains or loses,
+ * about 1/N of them. The ring is an immutable pair of sorted arrays replaced on every
+ * membership change, so lookups are a lock-free binary search.
+ */
+public class HashRing implements ClusterBus.Listener {
+
+    private final int virtualNodes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile Snapshot snapshot = new Snapshot(new long[0], new String[0], Set.of());
+
+    public HashRing(int virtualNodes) {
+        this.virtualNodes = virtualNodes;
+    }
+
+    public void add(String node) {
+        lock.lock();
+        try {
+            Snapshot current = snapshot;
+            if (current.members.contains(node)) {
+                return;
+            }
+            Set<String> members = new TreeSet<>(current.members);
+            members.add(node);
+            snapshot = build(members);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void remove(String node) {
+        lock.lock();
+        try {
+            Snapshot current = snapshot;
+            if (!current.members.contains(node)) {
+                return;
+            }
+            Set<String> members = new TreeSet<>(current.members);
+            members.remove(node);
+            snapshot = build(members);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Set<String> nodes() {
+        return snapshot.members;
+    }
+
+    /**
+     * The node owning the key, or {@code null} if the ring is empty.
+     */
+    public String nodeFor(String key) {
+        Snapshot current = snapshot;
+        if (current.points.length == 0) {
+            return null;
+        }
+        int index = Arrays.binarySearch(current.points, hash(key));
+        if (index < 0) {
+            index = -index - 1;
+            if (index == current.points.length) {
+                index = 0;
+            }
+        }
+        return current.owners[index];
+    }
+
+    /**
+     * Order-independent key of a one-to-one conversation, so both sides map to the same node.
+     */
+    public static String pairKey(String a, String b) {
+        return a.compareTo(b) <= 0 ? a + '\u0000' + b : b + '\u0000' + a;
+    }
+
+    @Override
+    public void onMessage(String node, ClusterMessage message) {
+        // placement only follows membership
+    }
+
+    @Override
+    public void onPeerUp(String node) {
+        add(node);
+    }
+
+    @Override
+    public void onPeerDown(String node) {
+        remove(node);
+    }
+
+    private Snapshot build(Set<String> members) {
+        int size = members.size() * virtualNodes;
+        // Sort (point, owner) pairs by point through an index array
+        Integer[] order = new Integer[size];
+        long[] unsorted = new long[size];
+        String[] unsortedOwners = new String[size];
+        int i = 0;
+        for (String node : members) {
+            for (int v = 0; v < virtualNodes; v++) {
+                unsorted[i] = hash(node + '#' + v);
+                unsortedOwners[i] = node;
+                order[i] = i;
+                i++;
+            }
+        }
+        Arrays.sort(order, (x, y) -> Long.compare(unsorted[x], unsorted[y]));
+        long[] points = new long[size];
+        String[] owners = new String[size];
+        for (int k = 0; k < size; k++) {
+            points[k] = unsorted[order[k]];
+            owners[k] = unsortedOwners[order[k]];
+        }
+        return new Snapshot(points, owners, Set.copyOf(members));
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 bytes, finished with a murmur3 mix so that similar
+     * keys ("node-1#1", "node-1#2") land far apart.
+     */
+    static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private record Snapshot(long[] points, String[] owners, Set<String> members) {
+    }
+}
@@ -0,0 +1,109 @@
+package com.JWT_Topic.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Bus between nodes living in the same JVM, e.g. several application contexts in a test.
+ * Every node created on the same {@link Hub} sees the others. Each node handles incoming
+ * messages on its own single thread, which keeps the per-sender order.
+ * With a single node it is a no-op bus, which is the default for a standalone instance.
+ */
+public class InProcessClusterBus implements ClusterBus {
+
+    private static final Logger log = LoggerFactory.getLogger(InProcessClusterBus.class);
+
+    /**
+     * The set of nodes that can reach each other.
+     */
+    public static class Hub {
+        private final Map<String, InProcessClusterBus> nodes = new ConcurrentHashMap<>();
+    }
+
+    /** Hub used when none is given: every in-process node of the JVM. */
+    public static final Hub SHARED = new Hub();
+
+    private final String localNode;
+    private final Hub hub;
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService inbox;
+
+    public InProcessClusterBus(String localNode, Hub hub) {
+        this.localNode = localNode;
+        this.hub = hub;
+        this.inbox = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-inbox-" + localNode);
+            thread.setDaemon(true);
+            return thread;
+        });
+        if (hub.nodes.putIfAbsent(localNode, this) != null) {
+            inbox.shutdown();
+            throw new IllegalStateException("Cluster node " + localNode + " already exists");
+        }
+        for (InProcessClusterBus other : hub.nodes.values()) {
+            if (other != this) {
+                other.deliver(listener -> listener.onPeerUp(localNode));
+                deliver(listener -> listener.onPeerUp(other.localNode));
+            }
+        }
+    }
+
+    @Override
+    public String localNode() {
+        return localNode;
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean send(String node, ClusterMessage message) {
+        InProcessClusterBus target = hub.nodes.get(node);
+        return target != null && target != this && target.deliver(listener -> listener.onMessage(localNode, message));
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+        for (String node : hub.nodes.keySet()) {
+            send(node, message);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (hub.nodes.remove(localNode, this)) {
+            for (InProcessClusterBus other : hub.nodes.values()) {
+                other.deliver(listener -> listener.onPeerDown(localNode));
+            }
+        }
+        inbox.shutdown();
+    }
+
+    private boolean deliver(Consumer<Listener> event) {
+        try {
+            inbox.execute(() -> {
+                for (Listener listener : listeners) {
+                    try {
+                        event.accept(listener);
+                    } catch (RuntimeException ex) {
+                        log.warn("Cluster listener failed on node {}", localNode, ex);
+                    }
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+    }
+}
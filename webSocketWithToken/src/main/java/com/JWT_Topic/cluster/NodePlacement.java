@@ -0,0 +1,59 @@
+package com.JWT_Topic.cluster;
+
+import java.util.Map;
+
+/**
+ * Decides whether a user connected to the right node: the {@link HashRing} picks the
+ * preferred node of each username, so a user's sessions and most of their traffic meet
+ * on one node instead of crossing the bus.
+ */
+public class NodePlacement {
+
+    public enum Mode {
+        /** Accept every connection, no hint. */
+        OFF,
+        /** Accept, and name the preferred node in the handshake response headers. */
+        HINT,
+        /** Refuse the handshake with 307 and the preferred node's URL. */
+        REDIRECT
+    }
+
+    private final HashRing ring;
+    private final String localNode;
+    private final Map<String, String> urls;
+    private final Mode mode;
+
+    /**
+     * @param urls node id → base URL clients use to reach it, e.g. {@code ws://10.0.0.2:9994}
+     */
+    public NodePlacement(HashRing ring, String localNode, Map<String, String> urls, Mode mode) {
+        this.ring = ring;
+        this.localNode = localNode;
+        this.urls = Map.copyOf(urls);
+        this.mode = mode;
+        ring.add(localNode);
+    }
+
+    /**
+     * The node the user should be connected to, or {@code null} if it is this one
+     * or placement is off.
+     */
+    public String preferredNode(String username) {
+        if (mode == Mode.OFF) {
+            return null;
+        }
+        String node = ring.nodeFor(username);
+        return node == null || node.equals(localNode) ? null : node;
+    }
+
+    /**
+     * Base URL of the node, or {@code null} if none is configured.
+     */
+    public String urlOf(String node) {
+        return urls.get(node);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+}
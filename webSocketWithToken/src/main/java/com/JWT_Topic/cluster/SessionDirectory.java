@@ -0,0 +1,27 @@
+package com.JWT_Topic.cluster;
+
+import java.util.Set;
+
+/**
+ * Which nodes hold sessions of which users, cluster-wide.
+ */
+public interface SessionDirectory {
+
+    /** The user now has at least one session on this node. */
+    void online(String username);
+
+    /** The user's last session on this node is gone. */
+    void offline(String username);
+
+    /** Other nodes the user is connected to; empty if none (or not known yet). */
+    Set<String> remoteNodes(String username);
+
+    /** Registers a listener for changes to {@link #remoteNodes}, whatever caused them. */
+    void subscribe(Listener listener);
+
+    interface Listener {
+
+        /** A node was added to or removed from the user's remote nodes. */
+        void remoteNodesChanged(String username);
+    }
+}
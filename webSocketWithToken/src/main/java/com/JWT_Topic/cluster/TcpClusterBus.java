@@ -0,0 +1,248 @@
+package com.JWT_Topic.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bus over plain TCP. Every node listens on one port and keeps one persistent outbound
+ * connection per peer; a connection only carries messages in one direction.
+ * <p>
+ * Sends are pipelined: each peer has a bounded queue drained by a writer thread that
+ * writes as many queued messages as are available before a single flush, so a burst
+ * costs one syscall rather than one per message. A lost connection is re-established
+ * with backoff; messages written while it was breaking are lost, queued ones are kept.
+ * An idle link checks once per second whether the peer closed it, so a restarted peer is
+ * reconnected before the next message rather than after writes into the dead socket.
+ * Delivery is not confirmed here: callers that need it acknowledge at their level.
+ */
+public class TcpClusterBus implements ClusterBus {
+
+    private static final Logger log = LoggerFactory.getLogger(TcpClusterBus.class);
+    private static final long MAX_BACKOFF_MILLIS = 5000;
+
+    private final String localNode;
+    private final ServerSocket server;
+    private final Map<String, Peer> peers = new ConcurrentHashMap<>();
+    private final Map<Socket, String> inbound = new ConcurrentHashMap<>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * @param bind  address to listen on, e.g. {@code 127.0.0.1:9101}
+     * @param peers node id → address of every other node
+     */
+    public TcpClusterBus(String localNode, InetSocketAddress bind, Map<String, InetSocketAddress> peers,
+                         int queueCapacity) throws IOException {
+        this.localNode = localNode;
+        this.server = new ServerSocket();
+        server.setReuseAddress(true);
+        server.bind(bind);
+        start("cluster-accept-" + localNode, this::accept);
+        peers.forEach((node, address) -> {
+            Peer peer = new Peer(node, address, queueCapacity);
+            this.peers.put(node, peer);
+            start("cluster-send-" + node, peer::run);
+        });
+    }
+
+    @Override
+    public String localNode() {
+        return localNode;
+    }
+
+    @Override
+    public void subscribe(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public boolean send(String node, ClusterMessage message) {
+        Peer peer = peers.get(node);
+        return peer != null && peer.queue.offer(message);
+    }
+
+    @Override
+    public void broadcast(ClusterMessage message) {
+        for (String node : peers.keySet()) {
+            if (!send(node, message)) {
+                log.warn("Cluster queue to {} is full, dropped a {} message", node, message.type());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            server.close();
+        } catch (IOException ignored) {
+            // shutting down
+        }
+        for (Peer peer : peers.values()) {
+            peer.disconnect();
+        }
+        for (Socket socket : inbound.keySet()) {
+            closeQuietly(socket);
+        }
+    }
+
+    private void accept() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                socket.setTcpNoDelay(true);
+                start("cluster-receive", () -> receive(socket));
+            } catch (IOException ex) {
+                if (!closed) {
+                    log.warn("Cluster accept failed on {}", localNode, ex);
+                }
+            }
+        }
+    }
+
+    private void receive(Socket socket) {
+        String node = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            node = in.readUTF();
+            inbound.put(socket, node);
+            while (!closed) {
+                ClusterMessage message = ClusterMessage.readFrom(in);
+                for (Listener listener : listeners) {
+                    notify(listener, node, message);
+                }
+            }
+        } catch (IOException ex) {
+            // the peer closed the connection or went away
+        } finally {
+            inbound.remove(socket);
+            closeQuietly(socket);
+            if (node != null && !closed) {
+                String down = node;
+                listeners.forEach(listener -> listener.onPeerDown(down));
+            }
+        }
+    }
+
+    private void notify(Listener listener, String node, ClusterMessage message) {
+        try {
+            listener.onMessage(node, message);
+        } catch (RuntimeException ex) {
+            log.warn("Cluster listener failed on a {} message from {}", message.type(), node, ex);
+        }
+    }
+
+    private static void start(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+            // nothing left to do
+        }
+    }
+
+    private final class Peer {
+
+        private final String node;
+        private final InetSocketAddress address;
+        private final BlockingQueue<ClusterMessage> queue;
+        private volatile Socket socket;
+
+        Peer(String node, InetSocketAddress address, int queueCapacity) {
+            this.node = node;
+            this.address = address;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        }
+
+        void run() {
+            long backoff = 100;
+            while (!closed) {
+                try (Socket connected = new Socket()) {
+                    connected.setTcpNoDelay(true);
+                    connected.connect(address, 2000);
+                    socket = connected;
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connected.getOutputStream(), 64 * 1024));
+                    out.writeUTF(localNode);
+                    out.flush();
+                    backoff = 100;
+                    listeners.forEach(listener -> listener.onPeerUp(node));
+                    write(connected, out);
+                } catch (IOException ex) {
+                    if (!closed) {
+                        log.debug("Cluster link {} → {} down, retrying in {} ms", localNode, node, backoff);
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                sleep(backoff);
+                backoff = Math.min(MAX_BACKOFF_MILLIS, backoff * 2);
+            }
+        }
+
+        private void write(Socket connected, DataOutputStream out) throws IOException, InterruptedException {
+            while (!closed) {
+                ClusterMessage message = queue.poll(1, TimeUnit.SECONDS);
+                if (message == null) {
+                    probe(connected);
+                    continue;
+                }
+                do {
+                    message.writeTo(out);
+                } while ((message = queue.poll()) != null);
+                out.flush();
+            }
+        }
+
+        /**
+         * The peer never writes on this connection, so a read only returns at end of stream.
+         */
+        private void probe(Socket connected) throws IOException {
+            connected.setSoTimeout(1);
+            try {
+                if (connected.getInputStream().read() < 0) {
+                    throw new EOFException("closed by " + node);
+                }
+            } catch (SocketTimeoutException alive) {
+                // nothing to read, the link is up
+            }
+        }
+
+        void disconnect() {
+            Socket current = socket;
+            if (current != null) {
+                closeQuietly(current);
+            }
+        }
+
+        private void sleep(long millis) {
+            try {
+                Thread.sleep(millis);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
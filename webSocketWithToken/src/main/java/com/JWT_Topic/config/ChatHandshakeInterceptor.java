@@ -0,0 +1,133 @@
+package com.JWT_Topic.config;
+
+import com.JWT_Topic.cluster.NodePlacement;
+import com.JWT_Topic.entity.Role;
+import com.JWT_Topic.handler.ChatDrain;
+import com.JWT_Topic.handler.ChatPrincipal;
+import com.JWT_Topic.handler.RolePermissions;
+import com.JWT_Topic.service.JWTService;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.server.ServerHttpRequest;
+import org.springframework.http.server.ServerHttpResponse;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.socket.WebSocketHandler;
+import org.springframework.web.socket.server.HandshakeInterceptor;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import java.net.URI;
+import java.util.Map;
+
+/**
+ * Verifies the {@code token} query parameter before the upgrade and stores the
+ * resulting {@link ChatPrincipal} in the session attributes, so the handler never
+ * has to decode the JWT or parse the URI again. The {@code targetUsername} parameter is
+ * optional: messages carry their recipient, the parameter only sets a default for plain lines.
+ * <p>
+ * When the user's preferred node is another one, the response names it in the
+ * {@value #PREFERRED_NODE_HEADER} and {@value #PREFERRED_URL_HEADER} headers, or redirects
+ * the client there, depending on {@link NodePlacement.Mode}. The URL carries the request's
+ * path and query without the token, which the client adds again, plus the
+ * {@value #REDIRECTED_PARAM} marker: a handshake that was already redirected once is
+ * accepted wherever it lands, so two nodes with different views of the ring cannot send
+ * a client back and forth. While the node drains for shutdown, handshakes are refused
+ * with 503 and {@code Retry-After}.
+ */
+public class ChatHandshakeInterceptor implements HandshakeInterceptor {
+
+    public static final String PREFERRED_NODE_HEADER = "X-Chat-Preferred-Node";
+    public static final String PREFERRED_URL_HEADER = "X-Chat-Preferred-Url";
+    public static final String REDIRECTED_PARAM = "redirected";
+
+    private final JWTService jwtService;
+    private final NodePlacement placement;
+    private final ChatDrain drain;
+
+    public ChatHandshakeInterceptor(JWTService jwtService, NodePlacement placement, ChatDrain drain) {
+        this.jwtService = jwtService;
+        this.placement = placement;
+        this.drain = drain;
+    }
+
+    @Override
+    public boolean beforeHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                                   WebSocketHandler wsHandler, Map<String, Object> attributes) {
+        if (drain.isDraining()) {
+            response.setStatusCode(HttpStatus.SERVICE_UNAVAILABLE);
+            response.getHeaders().set(HttpHeaders.RETRY_AFTER, Long.toString(drain.retryAfterSeconds()));
+            return false;
+        }
+
+        MultiValueMap<String, String> params = UriComponentsBuilder.fromUri(request.getURI())
+                .build()
+                .getQueryParams();
+        String token = params.getFirst("token");
+        String target = params.getFirst("targetUsername");
+
+        if (token == null) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+
+        DecodedJWT jwt;
+        try {
+            jwt = jwtService.verify(token);
+        } catch (JWTVerificationException ex) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+
+        String username = jwt.getClaim("USERNAME").asString();
+        Role role = RolePermissions.parse(jwt.getClaim("ROLE").asString());
+        if (username == null || role == null) {
+            response.setStatusCode(HttpStatus.UNAUTHORIZED);
+            return false;
+        }
+
+        if (!checkPlacement(request, response, username, params.containsKey(REDIRECTED_PARAM))) {
+            return false;
+        }
+
+        Long userId = jwt.getClaim("ID").asLong();
+        attributes.put(ChatPrincipal.ATTRIBUTE, new ChatPrincipal(username, role, target, userId));
+        return true;
+    }
+
+    /**
+     * Adds the redirect hint when the user belongs on another node;
+     * {@code false} if the handshake was answered with a redirect instead.
+     */
+    private boolean checkPlacement(ServerHttpRequest request, ServerHttpResponse response, String username,
+                                   boolean redirected) {
+        String preferred = placement.preferredNode(username);
+        if (preferred == null) {
+            return true;
+        }
+        response.getHeaders().set(PREFERRED_NODE_HEADER, preferred);
+        String url = placement.urlOf(preferred);
+        if (url == null) {
+            return true;
+        }
+        // The token must not end up in headers that proxies and clients log
+        String query = UriComponentsBuilder.fromUri(request.getURI())
+                .replaceQueryParam("token")
+                .replaceQueryParam(REDIRECTED_PARAM, "1")
+                .build(true)
+                .getQuery();
+        String location = url + request.getURI().getRawPath() + "?" + query;
+        response.getHeaders().set(PREFERRED_URL_HEADER, location);
+        if (placement.mode() == NodePlacement.Mode.REDIRECT && !redirected) {
+            response.setStatusCode(HttpStatus.TEMPORARY_REDIRECT);
+            response.getHeaders().setLocation(URI.create(location));
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void afterHandshake(ServerHttpRequest request, ServerHttpResponse response,
+                               WebSocketHandler wsHandler, Exception exception) {
+    }
+}
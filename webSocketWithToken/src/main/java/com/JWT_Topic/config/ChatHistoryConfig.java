@@ -0,0 +1,31 @@
+package com.JWT_Topic.config;
+
+import com.JWT_Topic.entity.repo.ChatMessageRepo;
+import com.JWT_Topic.service.ChatHistory;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Chat history settings under {@code chat.history}. Sequence numbers are message ids,
+ * so their uniqueness across nodes comes from {@code chat.cluster.node-index}.
+ */
+@Configuration
+public class ChatHistoryConfig {
+
+    @Bean(destroyMethod = "close")
+    ChatHistory chatHistory(ChatMessageRepo repo,
+                            JdbcTemplate jdbcTemplate,
+                            TransactionTemplate transactionTemplate,
+                            MeterRegistry meterRegistry,
+                            @Value("${chat.history.batch-size:500}") int batchSize,
+                            @Value("${chat.history.buffer-capacity:50000}") int bufferCapacity,
+                            @Value("${chat.history.flush-interval-ms:20}") long flushIntervalMillis,
+                            @Value("${chat.history.max-page-size:100}") int maxPageSize) {
+        return new ChatHistory(repo, jdbcTemplate, transactionTemplate, meterRegistry,
+                batchSize, bufferCapacity, flushIntervalMillis, maxPageSize);
+    }
+}
@@ -0,0 +1,103 @@
+package com.JWT_Topic.config;
+
+import com.JWT_Topic.cluster.BusSessionDirectory;
+import com.JWT_Topic.cluster.ClusterBus;
+import com.JWT_Topic.cluster.HashRing;
+import com.JWT_Topic.cluster.InProcessClusterBus;
+import com.JWT_Topic.cluster.NodePlacement;
+import com.JWT_Topic.cluster.TcpClusterBus;
+import com.JWT_Topic.service.MessageIds;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Selects the inter-node bus with {@code chat.cluster.transport}:
+ * {@code in-process} links the nodes of one JVM (a single node runs alone, the default),
+ * {@code tcp} links nodes over sockets, {@code chat.cluster.peers} listing the others as
+ * {@code node=host:port,...}.
+ * <p>
+ * Users are placed on nodes by a consistent-hash ring over the nodes whose link is up;
+ * {@code chat.cluster.placement} decides what a handshake on the wrong node gets.
+ * <p>
+ * Every node needs its own {@code chat.cluster.node-index} (0-255), which goes into the
+ * message ids it stamps: two nodes with the same index can hand out the same id. A single
+ * node may leave it at -1 (0 is used); with the TCP transport it must be set explicitly,
+ * and startup fails otherwise.
+ */
+@Configuration
+public class ClusterConfig {
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.cluster.transport", havingValue = "in-process", matchIfMissing = true)
+    ClusterBus inProcessClusterBus(@Value("${chat.cluster.node-id:node-1}") String nodeId) {
+        return new InProcessClusterBus(nodeId, InProcessClusterBus.SHARED);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.cluster.transport", havingValue = "tcp")
+    ClusterBus tcpClusterBus(@Value("${chat.cluster.node-id:node-1}") String nodeId,
+                             @Value("${chat.cluster.bind:127.0.0.1:9101}") String bind,
+                             @Value("${chat.cluster.peers:}") String peers,
+                             @Value("${chat.cluster.queue-capacity:100000}") int queueCapacity) throws IOException {
+        Map<String, InetSocketAddress> addresses = new LinkedHashMap<>();
+        parseNodeMap(peers).forEach((node, address) -> addresses.put(node, address(address)));
+        return new TcpClusterBus(nodeId, address(bind), addresses, queueCapacity);
+    }
+
+    @Bean
+    NodePlacement nodePlacement(ClusterBus clusterBus,
+                                @Value("${chat.cluster.virtual-nodes:128}") int virtualNodes,
+                                @Value("${chat.cluster.urls:}") String urls,
+                                @Value("${chat.cluster.placement:HINT}") NodePlacement.Mode mode) {
+        HashRing ring = new HashRing(virtualNodes);
+        clusterBus.subscribe(ring);
+        return new NodePlacement(ring, clusterBus.localNode(), parseNodeMap(urls), mode);
+    }
+
+    @Bean(destroyMethod = "close")
+    BusSessionDirectory sessionDirectory(ClusterBus clusterBus,
+                                         @Value("${chat.cluster.directory-sync-ms:30000}") long syncIntervalMillis) {
+        return new BusSessionDirectory(clusterBus, syncIntervalMillis);
+    }
+
+    @Bean
+    MessageIds messageIds(@Value("${chat.cluster.transport:in-process}") String transport,
+                          @Value("${chat.cluster.node-index:${chat.history.node-index:-1}}") int nodeIndex) {
+        if (nodeIndex > 255) {
+            throw new IllegalStateException("chat.cluster.node-index must be between 0 and 255, got " + nodeIndex);
+        }
+        if (nodeIndex < 0 && transport.equals("tcp")) {
+            // A derived index may repeat on another node and hand out the same message ids
+            throw new IllegalStateException(
+                    "chat.cluster.node-index must be set to a value distinct on every node when chat.cluster.transport=tcp");
+        }
+        return new MessageIds(Math.max(nodeIndex, 0));
+    }
+
+    /**
+     * Parses {@code node=value,node=value}.
+     */
+    private static Map<String, String> parseNodeMap(String entries) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (String entry : entries.split(",")) {
+            if (entry.isBlank()) {
+                continue;
+            }
+            String[] nodeAndValue = entry.trim().split("=", 2);
+            map.put(nodeAndValue[0], nodeAndValue[1]);
+        }
+        return map;
+    }
+
+    private static InetSocketAddress address(String hostAndPort) {
+        int colon = hostAndPort.lastIndexOf(':');
+        return new InetSocketAddress(hostAndPort.substring(0, colon), Integer.parseInt(hostAndPort.substring(colon + 1)));
+    }
+}
@@ -0,0 +1,53 @@
+package com.JWT_Topic.config;
+
+import com.JWT_Topic.entity.IdSequences;
+import jakarta.annotation.PostConstruct;
+import jakarta.persistence.EntityManagerFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+
+/**
+ * Moves each id sequence past the ids already in its table before anything is
+ * inserted. Rows created while the table still used {@code AUTO_INCREMENT} would
+ * otherwise collide with the first ids handed out by the pooled generator.
+ * <p>
+ * The sequence is only ever raised, so nodes starting together are safe. The pooled
+ * optimizer hands out the block ending at the stored value, hence the
+ * {@code + ALLOCATION_SIZE}.
+ */
+@Component
+public class IdSequenceInitializer {
+
+    private static final Logger log = LoggerFactory.getLogger(IdSequenceInitializer.class);
+
+    /** Sequence name → table whose ids it generates. */
+    private static final Map<String, String> SEQUENCES = Map.of("user", "user");
+
+    private static final String RAISE = "INSERT INTO " + IdSequences.TABLE +
+            " (" + IdSequences.NAME_COLUMN + ", " + IdSequences.VALUE_COLUMN + ") VALUES (?, ?)" +
+            " ON DUPLICATE KEY UPDATE " + IdSequences.VALUE_COLUMN + " = GREATEST(" + IdSequences.VALUE_COLUMN + ", ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    /**
+     * Takes the {@link EntityManagerFactory} only so the schema update has created the
+     * sequence table before this runs.
+     */
+    public IdSequenceInitializer(JdbcTemplate jdbcTemplate, EntityManagerFactory entityManagerFactory) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    @PostConstruct
+    public void raiseSequences() {
+        SEQUENCES.forEach((sequence, table) -> {
+            Long maxId = jdbcTemplate.queryForObject("SELECT COALESCE(MAX(id), 0) FROM `" + table + "`", Long.class);
+            long floor = maxId + IdSequences.ALLOCATION_SIZE;
+            jdbcTemplate.update(RAISE, sequence, floor, floor);
+            log.info("Id sequence {} starts after {}", sequence, maxId);
+        });
+    }
+}
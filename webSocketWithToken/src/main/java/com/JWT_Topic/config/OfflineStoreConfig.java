@@ -0,0 +1,69 @@
+package com.JWT_Topic.config;
+
+import com.JWT_Topic.entity.repo.OfflineMessageRepo;
+import com.JWT_Topic.service.BoundedOfflineMessageStore;
+import com.JWT_Topic.service.JpaOfflineMessageStore;
+import com.JWT_Topic.service.MappedOfflineMessageLog;
+import com.JWT_Topic.service.OfflineMessageStore;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Selects the offline message store with {@code chat.offline.store}:
+ * {@code mapped} keeps a local memory-mapped log (single instance),
+ * {@code jpa} shares the {@code offline_message} table between instances.
+ * Either one is wrapped with the quotas and TTL of {@code chat.offline.limits}.
+ */
+@Configuration
+public class OfflineStoreConfig {
+
+    private static final String BACKEND = "offlineMessageBackend";
+
+    @Bean(name = BACKEND, destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.offline.store", havingValue = "mapped", matchIfMissing = true)
+    MappedOfflineMessageLog mappedOfflineMessageStore(@Value("${chat.offline.directory:data/offline}") String directory,
+                                                      @Value("${chat.offline.segment-bytes:67108864}") int segmentBytes) {
+        return new MappedOfflineMessageLog(Path.of(directory), segmentBytes);
+    }
+
+    @Bean(name = BACKEND, destroyMethod = "close")
+    @ConditionalOnProperty(name = "chat.offline.store", havingValue = "jpa")
+    JpaOfflineMessageStore jpaOfflineMessageStore(OfflineMessageRepo repo,
+                                                  JdbcTemplate jdbcTemplate,
+                                                  TransactionTemplate transactionTemplate,
+                                                  MeterRegistry meterRegistry,
+                                                  @Value("${chat.offline.jpa.batch-size:200}") int batchSize,
+                                                  @Value("${chat.offline.jpa.buffer-capacity:20000}") int bufferCapacity,
+                                                  @Value("${chat.offline.jpa.flush-interval-ms:50}") long flushIntervalMillis,
+                                                  @Value("${chat.offline.jpa.page-size:500}") int pageSize,
+                                                  @Value("${chat.offline.jpa.append-timeout-ms:100}") long appendTimeoutMillis,
+                                                  @Value("${chat.offline.jpa.flush-wait-ms:200}") long flushWaitMillis) {
+        return new JpaOfflineMessageStore(repo, jdbcTemplate, transactionTemplate, meterRegistry,
+                batchSize, bufferCapacity, flushIntervalMillis, pageSize, appendTimeoutMillis, flushWaitMillis);
+    }
+
+    @Bean(destroyMethod = "close")
+    @Primary
+    BoundedOfflineMessageStore offlineMessageStore(@Qualifier(BACKEND) OfflineMessageStore backend,
+                                                   MeterRegistry meterRegistry,
+                                                   @Value("${chat.offline.limits.max-messages-per-recipient:5000}") int maxMessagesPerRecipient,
+                                                   @Value("${chat.offline.limits.max-bytes-per-recipient:5242880}") long maxBytesPerRecipient,
+                                                   @Value("${chat.offline.limits.max-messages:1000000}") long maxMessages,
+                                                   @Value("${chat.offline.limits.max-bytes:1073741824}") long maxBytes,
+                                                   @Value("${chat.offline.limits.ttl-hours:168}") long ttlHours,
+                                                   @Value("${chat.offline.limits.sweep-interval-ms:60000}") long sweepIntervalMillis) {
+        return new BoundedOfflineMessageStore(backend, meterRegistry,
+                maxMessagesPerRecipient, maxBytesPerRecipient, maxMessages, maxBytes,
+                TimeUnit.HOURS.toMillis(ttlHours), sweepIntervalMillis);
+    }
+}
@@ -0,0 +1,107 @@
+package com.JWT_Topic.config;
+
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+
+/**
+ * Controls permessage-deflate (RFC 7692) on the chat endpoints by rewriting the client's
+ * {@code Sec-WebSocket-Extensions} offer before the container negotiates it: the offer is
+ * removed when compression is disabled, and the no-context-takeover parameters are added
+ * when the configured mode asks for them.
+ */
+public class PerMessageDeflateFilter extends OncePerRequestFilter {
+
+    static final String EXTENSIONS_HEADER = "Sec-WebSocket-Extensions";
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    private static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+    private static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+
+    private final boolean enabled;
+    private final boolean serverContextTakeover;
+    private final boolean clientContextTakeover;
+
+    public PerMessageDeflateFilter(boolean enabled, boolean serverContextTakeover, boolean clientContextTakeover) {
+        this.enabled = enabled;
+        this.serverContextTakeover = serverContextTakeover;
+        this.clientContextTakeover = clientContextTakeover;
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        Enumeration<String> offered = request.getHeaders(EXTENSIONS_HEADER);
+        if (offered == null || !offered.hasMoreElements()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        List<String> extensions = new ArrayList<>();
+        while (offered.hasMoreElements()) {
+            for (String extension : offered.nextElement().split(",")) {
+                String rewritten = rewrite(extension.trim());
+                if (rewritten != null) {
+                    extensions.add(rewritten);
+                }
+            }
+        }
+        filterChain.doFilter(new ExtensionsRequest(request, extensions), response);
+    }
+
+    private String rewrite(String extension) {
+        if (extension.isEmpty()) {
+            return null;
+        }
+        int semicolon = extension.indexOf(';');
+        String name = (semicolon < 0 ? extension : extension.substring(0, semicolon)).trim();
+        if (!PERMESSAGE_DEFLATE.equalsIgnoreCase(name)) {
+            return extension;
+        }
+        if (!enabled) {
+            return null;
+        }
+        StringBuilder offer = new StringBuilder(extension);
+        if (!serverContextTakeover && !extension.contains(SERVER_NO_CONTEXT_TAKEOVER)) {
+            offer.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (!clientContextTakeover && !extension.contains(CLIENT_NO_CONTEXT_TAKEOVER)) {
+            offer.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        return offer.toString();
+    }
+
+    private static final class ExtensionsRequest extends HttpServletRequestWrapper {
+
+        private final List<String> extensions;
+
+        ExtensionsRequest(HttpServletRequest request, List<String> extensions) {
+            super(request);
+            this.extensions = extensions;
+        }
+
+        @Override
+        public String getHeader(String name) {
+            if (EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                return extensions.isEmpty() ? null : String.join(", ", extensions);
+            }
+            return super.getHeader(name);
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(String name) {
+            if (EXTENSIONS_HEADER.equalsIgnoreCase(name)) {
+                return Collections.enumeration(extensions);
+            }
+            return super.getHeaders(name);
+        }
+    }
+}
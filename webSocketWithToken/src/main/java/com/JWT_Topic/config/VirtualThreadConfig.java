@@ -0,0 +1,49 @@
+package com.JWT_Topic.config;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import javax.sql.DataSource;
+
+/**
+ * Support for {@code spring.threads.virtual.enabled}. With it, Tomcat serves REST calls
+ * and WebSocket frames on virtual threads, and the chat outbound drainers run on
+ * virtual threads too. The mode is opt-in; it is off unless the property is set.
+ * <p>
+ * The data source is wrapped in a {@link BoundedDataSource} whose permits match the
+ * Hikari pool ({@code chat.db.max-concurrency}, by default
+ * {@code spring.datasource.hikari.maximum-pool-size}), so at most that many threads are
+ * in JDBC at once, and a login burst parks in front of the pool instead of piling into it.
+ * Pinning-prone I/O (SMTP) is moved to platform threads by {@code PlatformThreadOffload}.
+ * Run with {@code -Djdk.tracePinnedThreads=short} to find other pinned sections.
+ */
+@Configuration
+public class VirtualThreadConfig {
+
+    @Bean
+    static BeanPostProcessor boundedDataSourcePostProcessor(Environment environment,
+                                                            ObjectProvider<MeterRegistry> meterRegistry) {
+        return new BeanPostProcessor() {
+            @Override
+            public Object postProcessAfterInitialization(Object bean, String beanName) {
+                if (!(bean instanceof DataSource dataSource) || bean instanceof BoundedDataSource) {
+                    return bean;
+                }
+                int poolSize = environment.getProperty("spring.datasource.hikari.maximum-pool-size", Integer.class, 10);
+                int maxConcurrency = environment.getProperty("chat.db.max-concurrency", Integer.class, poolSize);
+                long timeoutMillis = environment.getProperty("chat.db.acquire-timeout-ms", Long.class, 30000L);
+                BoundedDataSource bounded = new BoundedDataSource(dataSource, maxConcurrency, timeoutMillis);
+                meterRegistry.ifAvailable(registry -> {
+                    Gauge.builder("chat.db.waiting", bounded, BoundedDataSource::waiting).register(registry);
+                    Gauge.builder("chat.db.active", bounded, BoundedDataSource::active).register(registry);
+                });
+                return bounded;
+            }
+        };
+    }
+}
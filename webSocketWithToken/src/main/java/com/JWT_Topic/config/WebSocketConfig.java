@@ -1,32 +1,175 @@
 package com.JWT_Topic.config;
 
+import com.JWT_Topic.cluster.ClusterBus;
+import com.JWT_Topic.cluster.NodePlacement;
+import com.JWT_Topic.cluster.SessionDirectory;
+import com.JWT_Topic.handler.BinaryChatHandler;
+import com.JWT_Topic.handler.BinaryFrameCodec;
+import com.JWT_Topic.handler.ChatDrain;
 import com.JWT_Topic.handler.ChatHandler;
+import com.JWT_Topic.handler.ConversationDispatcher;
+import com.JWT_Topic.handler.DeliveryWindowManager;
+import com.JWT_Topic.handler.HeartbeatManager;
+import com.JWT_Topic.handler.OfflineDelivery;
+import com.JWT_Topic.handler.OutboundQueueManager;
+import com.JWT_Topic.handler.PresenceService;
+import com.JWT_Topic.handler.RoomFanout;
+import com.JWT_Topic.handler.RoomRegistry;
+import com.JWT_Topic.handler.SendRateLimiter;
+import com.JWT_Topic.handler.SessionRegistry;
+import com.JWT_Topic.handler.UserDelivery;
+import com.JWT_Topic.service.ChatHistory;
 import com.JWT_Topic.service.JWTService;
+import com.JWT_Topic.service.MessageIds;
+import com.JWT_Topic.service.OfflineMessageStore;
+import com.JWT_Topic.service.RoleDirectory;
+import com.JWT_Topic.service.UsernameFilter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.web.socket.WebSocketHandler;
 import org.springframework.web.socket.config.annotation.EnableWebSocket;
 import org.springframework.web.socket.config.annotation.WebSocketConfigurer;
 import org.springframework.web.socket.config.annotation.WebSocketHandlerRegistry;
+import org.springframework.web.socket.server.support.DefaultHandshakeHandler;
 
 @Configuration
 @EnableWebSocket
 public class WebSocketConfig implements WebSocketConfigurer {
 
     private final JWTService jwtService;
+    private final RoleDirectory roleDirectory;
+    private final OutboundQueueManager outboundQueues;
+    private final DeliveryWindowManager deliveryWindows;
+    private final OfflineMessageStore offlineMessages;
+    private final UsernameFilter knownUsers;
+    private final SendRateLimiter rateLimiter;
+    private final HeartbeatManager heartbeats;
+    private final ConversationDispatcher dispatcher;
+    private final ChatHistory chatHistory;
+    private final MessageIds messageIds;
+    private final ClusterBus clusterBus;
+    private final SessionDirectory sessionDirectory;
+    private final NodePlacement placement;
+    private final MeterRegistry meterRegistry;
+    private final int maxDevices;
+    private final int roomMaxMembers;
+    private final int roomFanoutBatchSize;
+    private final int roomFanoutThreads;
+    private final int maxConversations;
+    private final long presenceCoalesceMillis;
+    private final long typingIntervalMillis;
+    private final long drainTimeoutMillis;
+    private final long reconnectMinMillis;
+    private final long reconnectMaxMillis;
+    private final long forwardAckTimeoutMillis;
 
-    public WebSocketConfig(JWTService jwtService) {
+    public WebSocketConfig(JWTService jwtService, RoleDirectory roleDirectory, OutboundQueueManager outboundQueues,
+                           DeliveryWindowManager deliveryWindows, OfflineMessageStore offlineMessages,
+                           UsernameFilter knownUsers, SendRateLimiter rateLimiter, HeartbeatManager heartbeats,
+                           ConversationDispatcher dispatcher, ChatHistory chatHistory, MessageIds messageIds,
+                           ClusterBus clusterBus,
+                           SessionDirectory sessionDirectory, NodePlacement placement, MeterRegistry meterRegistry,
+                           @Value("${chat.sessions.max-devices:5}") int maxDevices,
+                           @Value("${chat.rooms.max-members:5000}") int roomMaxMembers,
+                           @Value("${chat.rooms.fanout-batch-size:256}") int roomFanoutBatchSize,
+                           @Value("${chat.rooms.fanout-threads:4}") int roomFanoutThreads,
+                           @Value("${chat.conversations.max-per-session:1024}") int maxConversations,
+                           @Value("${chat.presence.coalesce-ms:1000}") long presenceCoalesceMillis,
+                           @Value("${chat.typing.min-interval-ms:2000}") long typingIntervalMillis,
+                           @Value("${chat.drain.timeout-ms:10000}") long drainTimeoutMillis,
+                           @Value("${chat.drain.reconnect-min-ms:1000}") long reconnectMinMillis,
+                           @Value("${chat.drain.reconnect-max-ms:15000}") long reconnectMaxMillis,
+                           @Value("${chat.cluster.ack-timeout-ms:5000}") long forwardAckTimeoutMillis) {
         this.jwtService = jwtService;
+        this.roleDirectory = roleDirectory;
+        this.outboundQueues = outboundQueues;
+        this.deliveryWindows = deliveryWindows;
+        this.offlineMessages = offlineMessages;
+        this.knownUsers = knownUsers;
+        this.rateLimiter = rateLimiter;
+        this.heartbeats = heartbeats;
+        this.dispatcher = dispatcher;
+        this.chatHistory = chatHistory;
+        this.messageIds = messageIds;
+        this.clusterBus = clusterBus;
+        this.sessionDirectory = sessionDirectory;
+        this.placement = placement;
+        this.meterRegistry = meterRegistry;
+        this.maxDevices = maxDevices;
+        this.roomMaxMembers = roomMaxMembers;
+        this.roomFanoutBatchSize = roomFanoutBatchSize;
+        this.roomFanoutThreads = roomFanoutThreads;
+        this.maxConversations = maxConversations;
+        this.presenceCoalesceMillis = presenceCoalesceMillis;
+        this.typingIntervalMillis = typingIntervalMillis;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.reconnectMinMillis = reconnectMinMillis;
+        this.reconnectMaxMillis = reconnectMaxMillis;
+        this.forwardAckTimeoutMillis = forwardAckTimeoutMillis;
     }
 
     @Override
     public void registerWebSocketHandlers(WebSocketHandlerRegistry registry) {
         registry.addHandler(chatHandler(), "/chat")
+                .addInterceptors(new ChatHandshakeInterceptor(jwtService, placement, chatDrain()))
                 .setAllowedOrigins("*");
+
+        DefaultHandshakeHandler binaryHandshake = new DefaultHandshakeHandler();
+        binaryHandshake.setSupportedProtocols(BinaryFrameCodec.SUBPROTOCOL);
+        registry.addHandler(binaryChatHandler(), "/chat/binary")
+                .setHandshakeHandler(binaryHandshake)
+                .addInterceptors(new ChatHandshakeInterceptor(jwtService, placement, chatDrain()))
+                .setAllowedOrigins("*");
+    }
+
+    @Bean
+    SessionRegistry chatSessions() {
+        return new SessionRegistry(maxDevices, sessionDirectory);
+    }
+
+    @Bean
+    ChatDrain chatDrain() {
+        return new ChatDrain(chatSessions(), dispatcher, drainTimeoutMillis, reconnectMinMillis, reconnectMaxMillis);
+    }
+
+    @Bean
+    OfflineDelivery offlineDelivery() {
+        return new OfflineDelivery(offlineMessages, meterRegistry);
+    }
+
+    @Bean(destroyMethod = "close")
+    UserDelivery userDelivery() {
+        return new UserDelivery(chatSessions(), offlineDelivery(), sessionDirectory, clusterBus, forwardAckTimeoutMillis);
+    }
+
+    @Bean
+    RoomRegistry chatRooms() {
+        return new RoomRegistry(roomMaxMembers);
+    }
+
+    @Bean(destroyMethod = "close")
+    RoomFanout roomFanout() {
+        return new RoomFanout(chatRooms(), chatSessions(), offlineDelivery(), userDelivery(), messageIds,
+                roomFanoutBatchSize, roomFanoutThreads);
+    }
+
+    @Bean(destroyMethod = "close")
+    PresenceService presenceService() {
+        return new PresenceService(chatSessions(), sessionDirectory, presenceCoalesceMillis);
     }
 
     @Bean
     WebSocketHandler chatHandler() {
-        return new ChatHandler(jwtService);
+        return new ChatHandler(jwtService, outboundQueues, deliveryWindows, offlineDelivery(), knownUsers,
+                chatSessions(), userDelivery(), chatRooms(), roomFanout(), presenceService(), rateLimiter,
+                heartbeats, dispatcher, chatHistory, messageIds, maxConversations, typingIntervalMillis);
+    }
+
+    @Bean
+    WebSocketHandler binaryChatHandler() {
+        return new BinaryChatHandler(jwtService, roleDirectory, outboundQueues, offlineDelivery(), chatSessions(),
+                userDelivery(), presenceService(), rateLimiter, heartbeats, chatHistory, messageIds);
     }
 }
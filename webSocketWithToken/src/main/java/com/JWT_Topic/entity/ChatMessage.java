@@ -0,0 +1,60 @@
+package com.JWT_Topic.entity;
+
+import jakarta.persistence.*;
+
+import java.time.LocalDateTime;
+
+/**
+ * A chat message kept for history. The primary key is (conversation, seq), so InnoDB
+ * stores each conversation's messages together in order and a page of history is one
+ * range scan of the clustered index.
+ */
+@Entity
+@Table(name = "chat_message")
+public class ChatMessage {
+
+    @EmbeddedId
+    private ChatMessageId id;
+
+    @Column(name = "sender", nullable = false)
+    private String sender;
+
+    @Lob
+    @Column(name = "body", nullable = false)
+    private String body;
+
+    @Column(name = "created_at", nullable = false)
+    private LocalDateTime createdAt;
+
+    public ChatMessageId getId() {
+        return id;
+    }
+
+    public void setId(ChatMessageId id) {
+        this.id = id;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public void setSender(String sender) {
+        this.sender = sender;
+    }
+
+    public String getBody() {
+        return body;
+    }
+
+    public void setBody(String body) {
+        this.body = body;
+    }
+
+    public LocalDateTime getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(LocalDateTime createdAt) {
+        this.createdAt = createdAt;
+    }
+}
@@ -0,0 +1,54 @@
+package com.JWT_Topic.entity;
+
+import jakarta.persistence.Column;
+import jakarta.persistence.Embeddable;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * Primary key of {@link ChatMessage}: the conversation and the message's position in it.
+ */
+@Embeddable
+public class ChatMessageId implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    @Column(name = "conversation_id", nullable = false, length = 191)
+    private String conversationId;
+
+    @Column(name = "seq", nullable = false)
+    private long seq;
+
+    public ChatMessageId() {
+    }
+
+    public ChatMessageId(String conversationId, long seq) {
+        this.conversationId = conversationId;
+        this.seq = seq;
+    }
+
+    public String getConversationId() {
+        return conversationId;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ChatMessageId other)) {
+            return false;
+        }
+        return seq == other.seq && Objects.equals(conversationId, other.conversationId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(conversationId, seq);
+    }
+}
@@ -0,0 +1,20 @@
+package com.JWT_Topic.entity;
+
+/**
+ * Table-backed id sequences for entities whose inserts should be batched.
+ * <p>
+ * With {@code IDENTITY} ids Hibernate must insert every row on its own to read back the
+ * key. A table generator with the pooled optimizer reserves {@link #ALLOCATION_SIZE} ids
+ * per round trip instead, so new entities get their ids in memory and their inserts go
+ * out as JDBC batches ({@code hibernate.jdbc.batch_size}).
+ */
+public final class IdSequences {
+
+    public static final String TABLE = "id_sequence";
+    public static final String NAME_COLUMN = "sequence_name";
+    public static final String VALUE_COLUMN = "next_val";
+    public static final int ALLOCATION_SIZE = 50;
+
+    private IdSequences() {
+    }
+}
@@ -0,0 +1,50 @@
+package com.JWT_Topic.entity;
+
+import com.JWT_Topic.service.RoleDirectory;
+import jakarta.persistence.PostPersist;
+import jakarta.persistence.PostRemove;
+import jakarta.persistence.PostUpdate;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Drops the cached role and username of a user whenever the row is written, so role
+ * changes (and newly registered users that were cached as unknown) are picked up
+ * by the chat permission checks immediately.
+ * <p>
+ * The JPA callbacks run before the transaction commits, when other threads can still
+ * read the old row, so the entry is dropped after the commit.
+ */
+@Component
+public class UserRoleListener {
+
+    private final ObjectProvider<RoleDirectory> roleDirectory;
+
+    public UserRoleListener(ObjectProvider<RoleDirectory> roleDirectory) {
+        this.roleDirectory = roleDirectory;
+    }
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void userChanged(User user) {
+        Long id = user.getId();
+        String username = user.getUsername();
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            invalidate(id, username);
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCommit() {
+                invalidate(id, username);
+            }
+        });
+    }
+
+    private void invalidate(Long id, String username) {
+        roleDirectory.ifAvailable(directory -> directory.invalidate(id, username));
+    }
+}
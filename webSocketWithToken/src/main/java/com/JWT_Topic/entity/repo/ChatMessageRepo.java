@@ -0,0 +1,23 @@
+package com.JWT_Topic.entity.repo;
+
+import com.JWT_Topic.entity.ChatMessage;
+import com.JWT_Topic.entity.ChatMessageId;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface ChatMessageRepo extends JpaRepository<ChatMessage, ChatMessageId> {
+
+    /**
+     * Keyset page of a conversation, newest first: the messages before {@code beforeSeq}.
+     */
+    @Query(value = "SELECT * FROM chat_message WHERE conversation_id = :conversationId AND seq < :beforeSeq " +
+            "ORDER BY seq DESC LIMIT :limit", nativeQuery = true)
+    List<ChatMessage> pageBefore(@Param("conversationId") String conversationId,
+                                 @Param("beforeSeq") long beforeSeq,
+                                 @Param("limit") int limit);
+}
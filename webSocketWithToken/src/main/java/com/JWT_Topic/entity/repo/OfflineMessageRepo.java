@@ -0,0 +1,23 @@
+package com.JWT_Topic.entity.repo;
+
+import com.JWT_Topic.entity.OfflineMessage;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface OfflineMessageRepo extends JpaRepository<OfflineMessage, Long> {
+
+    /**
+     * The first page of a recipient's messages in message id order (rows without one first),
+     * locked so that two instances never drain the same rows. This always reads the head of
+     * the queue: callers delete the page before asking for the next one.
+     */
+    @Query(value = "SELECT * FROM offline_message WHERE recipient = :recipient " +
+            "ORDER BY message_id, id LIMIT :limit FOR UPDATE SKIP LOCKED", nativeQuery = true)
+    List<OfflineMessage> lockPage(@Param("recipient") String recipient,
+                                  @Param("limit") int limit);
+}
@@ -1,10 +1,14 @@
 package com.JWT_Topic.entity.repo;
 
 //import com.ProjectGraduation.auth.entity.Merchant;
+ import com.JWT_Topic.entity.Role;
  import com.JWT_Topic.entity.User;
  import org.springframework.data.jpa.repository.JpaRepository;
+ import org.springframework.data.jpa.repository.Query;
+ import org.springframework.data.repository.query.Param;
  import org.springframework.stereotype.Repository;
 
+ import java.util.List;
  import java.util.Optional;
 
 @Repository
@@ -14,6 +18,15 @@ public interface UserRepo extends JpaRepository<User, Long> {
 
     Optional<User> findByEmailIgnoreCase(String email);
 
+    @Query("SELECT u.role FROM User u WHERE LOWER(u.username) = LOWER(:username)")
+    Optional<Role> findRoleByUsernameIgnoreCase(@Param("username") String username);
+
+    @Query("SELECT u.username FROM User u")
+    List<String> findAllUsernames();
+
+    @Query("SELECT u.username FROM User u WHERE u.id = :id")
+    Optional<String> findUsernameById(@Param("id") Long id);
+
     //////  save product //////
 //    @Query("SELECT u FROM User u LEFT JOIN FETCH u.savedProducts WHERE u.id = :userId")
 //    Optional<User> findByIdWithSavedProducts(@Param("userId") Long userId);
@@ -0,0 +1,154 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.entity.Role;
+import com.JWT_Topic.service.ChatHistory;
+import com.JWT_Topic.service.JWTService;
+import com.JWT_Topic.service.MessageIds;
+import com.JWT_Topic.service.RoleDirectory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.handler.BinaryWebSocketHandler;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Binary variant of the chat endpoint ({@link BinaryFrameCodec#SUBPROTOCOL}).
+ * <p>
+ * Frames between two binary sessions are relayed without decoding the payload: the
+ * server only checks the header, stamps the authenticated sender id into it and forwards
+ * the bytes. The container reuses its receive buffer once this callback returns, so the
+ * frame is bulk-copied once before it is queued; it is never decoded or re-encoded.
+ */
+public class BinaryChatHandler extends BinaryWebSocketHandler {
+
+    private static final String BINARY_ATTRIBUTE = BinaryChatHandler.class.getName();
+    private static final WebSocketSession[] NO_SESSIONS = new WebSocketSession[0];
+
+    private final JWTService jwtService;
+    private final RoleDirectory roleDirectory;
+    private final OutboundQueueManager outboundQueues;
+    private final OfflineDelivery offline;
+    private final SessionRegistry sessions;
+    private final UserDelivery userDelivery;
+    private final PresenceService presence;
+    private final SendRateLimiter rateLimiter;
+    private final HeartbeatManager heartbeats;
+    private final ChatHistory history;
+    private final MessageIds messageIds;
+
+    public BinaryChatHandler(JWTService jwtService, RoleDirectory roleDirectory, OutboundQueueManager outboundQueues,
+                             OfflineDelivery offline, SessionRegistry sessions, UserDelivery userDelivery,
+                             PresenceService presence, SendRateLimiter rateLimiter, HeartbeatManager heartbeats,
+                             ChatHistory history, MessageIds messageIds) {
+        this.jwtService = jwtService;
+        this.roleDirectory = roleDirectory;
+        this.outboundQueues = outboundQueues;
+        this.offline = offline;
+        this.sessions = sessions;
+        this.userDelivery = userDelivery;
+        this.presence = presence;
+        this.rateLimiter = rateLimiter;
+        this.heartbeats = heartbeats;
+        this.history = history;
+        this.messageIds = messageIds;
+    }
+
+    static boolean isBinary(WebSocketSession session) {
+        return session.getAttributes().containsKey(BINARY_ATTRIBUTE);
+    }
+
+    @Override
+    public void afterConnectionEstablished(WebSocketSession session) throws Exception {
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        if (principal.userId() == null) {
+            session.close(CloseStatus.POLICY_VIOLATION.withReason("Token has no user id, log in again"));
+            return;
+        }
+        session.getAttributes().put(BINARY_ATTRIBUTE, Boolean.TRUE);
+        OutboundQueue queue = outboundQueues.open(session, offline);
+        ChatHandler.closeEvicted(sessions.register(principal.username(), principal.userId(), session));
+        presence.changed(principal.username());
+        heartbeats.open(session);
+
+        long self = principal.userId();
+        offline.deliver(principal.username(), OfflineDelivery.toQueue(queue,
+                batch -> new BinaryMessage(BinaryFrameCodec.encodeText(0L, self, 0L, ChatFrames.batch(batch).getPayload()))));
+    }
+
+    @Override
+    protected void handleBinaryMessage(WebSocketSession session, BinaryMessage message) {
+        Heartbeat.of(session).touch();
+        ByteBuffer frame = message.getPayload();
+        if (!BinaryFrameCodec.isValid(frame)) {
+            reject(session, 0L, 0L);
+            return;
+        }
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        long targetId = BinaryFrameCodec.target(frame);
+        if (rateLimiter.tryAcquire(principal.username(), principal.role()) > 0) {
+            reject(session, targetId, BinaryFrameCodec.messageId(frame));
+            return;
+        }
+        String target = sessions.usernameOf(targetId);
+        WebSocketSession[] devices = target != null ? sessions.sessions(target) : NO_SESSIONS;
+
+        Role targetRole;
+        if (devices.length > 0) {
+            targetRole = ChatPrincipal.of(devices[0]).role();
+        } else {
+            // Slow path: the target is offline or connected to another node
+            target = roleDirectory.getUsername(targetId);
+            targetRole = RolePermissions.parse(jwtService.getRoleByUsername(target));
+        }
+        if (!RolePermissions.allowed(principal.role(), targetRole)) {
+            reject(session, targetId, BinaryFrameCodec.messageId(frame));
+            return;
+        }
+
+        BinaryFrameCodec.writeSender(frame, principal.userId());
+        ByteBuffer copy = ByteBuffer.allocate(frame.remaining()).put(frame.duplicate()).flip();
+        // Only text payloads have a form that can wait in the offline store
+        String line = (BinaryFrameCodec.flags(frame) & BinaryFrameCodec.FLAG_TEXT) != 0 ? textLine(principal, frame) : null;
+        long id = messageIds.next();
+        if (!userDelivery.deliver(target, id, line, copy)) {
+            reject(session, targetId, BinaryFrameCodec.messageId(frame));
+            return;
+        }
+        if (line != null) {
+            history.record(id, principal.username(), target, BinaryFrameCodec.payloadText(frame));
+        }
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeats.pong(session, message);
+    }
+
+    @Override
+    public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
+        sessions.unregister(session);
+        heartbeats.close(session);
+        String username = ChatPrincipal.of(session).username();
+        presence.changed(username);
+        if (sessions.devices(username) == 0) {
+            rateLimiter.release(username);
+        }
+        OutboundQueue queue = OutboundQueue.of(session);
+        if (queue != null) {
+            queue.close();
+        }
+    }
+
+    // ========== Helper Methods ==========
+
+    private static String textLine(ChatPrincipal sender, ByteBuffer frame) {
+        return "[" + sender.username() + "] → " + BinaryFrameCodec.payloadText(frame);
+    }
+
+    private void reject(WebSocketSession session, long targetId, long messageId) {
+        OutboundQueue.of(session).offer(new BinaryMessage(BinaryFrameCodec.rejected(targetId, messageId)), List.of());
+    }
+}
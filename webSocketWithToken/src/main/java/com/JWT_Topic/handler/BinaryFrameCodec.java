@@ -0,0 +1,126 @@
+package com.JWT_Topic.handler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Fixed 28-byte header of the binary chat protocol ({@value #SUBPROTOCOL}), big-endian:
+ * <pre>
+ *  0  byte   magic (0xC7)
+ *  1  byte   version (1)
+ *  2  short  flags
+ *  4  long   sender user id   (overwritten by the server)
+ * 12  long   target user id
+ * 20  long   message id       (chosen by the client, relayed as-is)
+ * 28  ...    payload
+ * </pre>
+ * All accessors use absolute positions relative to the buffer's position, so reading
+ * or patching a frame never allocates and never moves the buffer's position.
+ */
+public final class BinaryFrameCodec {
+
+    public static final String SUBPROTOCOL = "chat.bin.v1";
+    public static final int HEADER_LENGTH = 28;
+
+    /** Payload is UTF-8 text; such frames can be stored offline and relayed to text sessions. */
+    public static final short FLAG_TEXT = 0x01;
+    /** Server → client: the frame with this message id was not delivered. */
+    public static final short FLAG_REJECTED = 0x02;
+    /** Server → client: the payload is a JSON room frame; the target id is 0. */
+    public static final short FLAG_ROOM = 0x04;
+
+    private static final byte MAGIC = (byte) 0xC7;
+    private static final byte VERSION = 1;
+
+    private static final int FLAGS = 2;
+    private static final int SENDER = 4;
+    private static final int TARGET = 12;
+    private static final int MESSAGE_ID = 20;
+
+    private BinaryFrameCodec() {
+    }
+
+    public static boolean isValid(ByteBuffer frame) {
+        int base = frame.position();
+        return frame.remaining() >= HEADER_LENGTH
+                && frame.get(base) == MAGIC
+                && frame.get(base + 1) == VERSION;
+    }
+
+    public static short flags(ByteBuffer frame) {
+        return frame.getShort(frame.position() + FLAGS);
+    }
+
+    public static long sender(ByteBuffer frame) {
+        return frame.getLong(frame.position() + SENDER);
+    }
+
+    public static long target(ByteBuffer frame) {
+        return frame.getLong(frame.position() + TARGET);
+    }
+
+    public static long messageId(ByteBuffer frame) {
+        return frame.getLong(frame.position() + MESSAGE_ID);
+    }
+
+    public static int payloadLength(ByteBuffer frame) {
+        return frame.remaining() - HEADER_LENGTH;
+    }
+
+    /**
+     * Stamps the authenticated sender into the header in place.
+     */
+    public static void writeSender(ByteBuffer frame, long sender) {
+        frame.putLong(frame.position() + SENDER, sender);
+    }
+
+    /**
+     * Writes a header at the destination's current position and advances past it.
+     */
+    public static void writeHeader(ByteBuffer destination, short flags, long sender, long target, long messageId) {
+        destination.put(MAGIC)
+                .put(VERSION)
+                .putShort(flags)
+                .putLong(sender)
+                .putLong(target)
+                .putLong(messageId);
+    }
+
+    /**
+     * Decodes the payload as UTF-8. Only used off the relay path (offline storage,
+     * delivery to text sessions).
+     */
+    public static String payloadText(ByteBuffer frame) {
+        int length = payloadLength(frame);
+        byte[] bytes = new byte[length];
+        frame.get(frame.position() + HEADER_LENGTH, bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Encodes a complete text frame, used when a text session talks to a binary one.
+     */
+    public static ByteBuffer encodeText(long sender, long target, long messageId, String text) {
+        return encode(FLAG_TEXT, sender, target, messageId, text);
+    }
+
+    /**
+     * Encodes a complete frame with a UTF-8 payload.
+     */
+    public static ByteBuffer encode(short flags, long sender, long target, long messageId, String text) {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH + payload.length);
+        writeHeader(frame, flags, sender, target, messageId);
+        frame.put(payload);
+        return frame.flip();
+    }
+
+    /**
+     * Header-only frame telling the sender that a message was not delivered.
+     */
+    public static ByteBuffer rejected(long target, long messageId) {
+        ByteBuffer frame = ByteBuffer.allocate(HEADER_LENGTH);
+        writeHeader(frame, FLAG_REJECTED, 0L, target, messageId);
+        return frame.flip();
+    }
+}
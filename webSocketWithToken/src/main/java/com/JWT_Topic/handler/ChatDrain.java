@@ -0,0 +1,123 @@
+package com.JWT_Topic.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Drains the node on shutdown, before the web server stops.
+ * <p>
+ * New handshakes are refused (the interceptor answers 503 with {@code Retry-After}), the
+ * {@link ConversationDispatcher} stops taking messages and runs the ones it has queued.
+ * Those and the frames already queued get up to {@code drainTimeoutMillis} to be written. Then every
+ * session is closed with 1012 (service restart) and a {@code reconnectAfterMs=N} reason,
+ * with N spread over a range so that clients do not all come back in the same instant.
+ * Closing a session returns its queued and unacknowledged messages to the offline store,
+ * which persists them when it is closed.
+ */
+public class ChatDrain implements SmartLifecycle {
+
+    private static final Logger log = LoggerFactory.getLogger(ChatDrain.class);
+
+    private final SessionRegistry sessions;
+    private final ConversationDispatcher dispatcher;
+    private final long drainTimeoutMillis;
+    private final long reconnectMinMillis;
+    private final long reconnectMaxMillis;
+
+    private volatile boolean running;
+    private volatile boolean draining;
+
+    public ChatDrain(SessionRegistry sessions, ConversationDispatcher dispatcher,
+                     long drainTimeoutMillis, long reconnectMinMillis, long reconnectMaxMillis) {
+        this.sessions = sessions;
+        this.dispatcher = dispatcher;
+        this.drainTimeoutMillis = drainTimeoutMillis;
+        this.reconnectMinMillis = reconnectMinMillis;
+        this.reconnectMaxMillis = Math.max(reconnectMinMillis, reconnectMaxMillis);
+    }
+
+    public boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Seconds a refused client should wait before trying again.
+     */
+    public long retryAfterSeconds() {
+        return Math.max(1, TimeUnit.MILLISECONDS.toSeconds(reconnectMaxMillis));
+    }
+
+    @Override
+    public void start() {
+        draining = false;
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        draining = true;
+        List<WebSocketSession> open = sessions.allSessions();
+        log.info("Draining {} chat sessions", open.size());
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeoutMillis);
+        if (!dispatcher.stop(deadline)) {
+            log.warn("Chat dispatch lanes not empty before the deadline, {} tasks left", dispatcher.depth());
+        }
+        boolean flushed = awaitFlush(open, deadline);
+        for (WebSocketSession session : open) {
+            long reconnectAfter = ThreadLocalRandom.current().nextLong(reconnectMinMillis, reconnectMaxMillis + 1);
+            try {
+                session.close(CloseStatus.SERVICE_RESTARTED.withReason("reconnectAfterMs=" + reconnectAfter));
+            } catch (IOException | RuntimeException ignored) {
+                // the session is going away either way
+            }
+        }
+        log.info("Chat sessions closed, outbound queues {}", flushed ? "flushed" : "not flushed before the deadline");
+        running = false;
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops before the web server and the beans the sessions depend on.
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE;
+    }
+
+    private boolean awaitFlush(List<WebSocketSession> open, long deadline) {
+        while (true) {
+            boolean empty = true;
+            for (WebSocketSession session : open) {
+                OutboundQueue queue = OutboundQueue.of(session);
+                if (session.isOpen() && queue != null && !queue.isEmpty()) {
+                    empty = false;
+                    break;
+                }
+            }
+            if (empty) {
+                return true;
+            }
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+    }
+}
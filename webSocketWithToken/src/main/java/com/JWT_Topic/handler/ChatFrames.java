@@ -0,0 +1,143 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.service.Envelope;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.springframework.web.socket.TextMessage;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds the JSON frames the server sends besides plain chat lines.
+ * <p>
+ * Chat messages carry a {@code msgId} that stays the same on every device and every
+ * redelivery, also after a reconnect, so clients drop a {@code msgId} they already have.
+ * On text sessions they also carry the session's {@code id} sequence, which is what the
+ * client acknowledges.
+ */
+public final class ChatFrames {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ChatFrames() {
+    }
+
+    /**
+     * {@code {"type":"batch","messages":["...", "..."],"msgIds":[7,8]}}
+     */
+    public static TextMessage batch(List<Envelope> messages) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "batch");
+        putMessages(frame, messages);
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * {@code {"type":"msg","id":42,"msgId":7,"body":"..."}}, acknowledged by the client.
+     */
+    public static TextMessage message(long id, Envelope message) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "msg");
+        frame.put("id", id);
+        frame.put("msgId", message.id());
+        frame.put("body", message.line());
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * {@code {"type":"batch","firstId":42,"messages":["...", "..."],"msgIds":[7,8]}}; the
+     * messages carry consecutive ids starting at {@code firstId}.
+     */
+    public static TextMessage batch(long firstId, List<Envelope> messages) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "batch");
+        frame.put("firstId", firstId);
+        putMessages(frame, messages);
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * {@code {"type":"room","room":"...","from":"...","msgId":7,"body":"..."}}
+     */
+    public static TextMessage room(String room, String from, long msgId, String body) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "room");
+        frame.put("room", room);
+        frame.put("from", from);
+        frame.put("msgId", msgId);
+        frame.put("body", body);
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * {@code {"type":"presence","user":"...","online":true}}
+     */
+    public static TextMessage presence(String username, boolean online) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "presence");
+        frame.put("user", username);
+        frame.put("online", online);
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * {@code {"type":"typing","from":"..."}}
+     */
+    public static TextMessage typing(String from) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "typing");
+        frame.put("from", from);
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * {@code {"type":"error","code":"rate_limited","retryAfterMs":120}}
+     */
+    public static TextMessage error(String code, long retryAfterMillis) {
+        Map<String, Object> frame = new LinkedHashMap<>();
+        frame.put("type", "error");
+        frame.put("code", code);
+        frame.put("retryAfterMs", retryAfterMillis);
+        return new TextMessage(write(frame));
+    }
+
+    /**
+     * Parses a client command such as {@code {"type":"ack","upTo":42}} or
+     * {@code {"type":"join","room":"..."}}; {@code null} if the payload is a plain chat line.
+     */
+    public static JsonNode command(String payload) {
+        if (payload.isEmpty() || payload.charAt(0) != '{') {
+            return null;
+        }
+        try {
+            JsonNode frame = MAPPER.readTree(payload);
+            return frame.hasNonNull("type") ? frame : null;
+        } catch (JsonProcessingException ignored) {
+            // an ordinary chat line that happens to start with a brace
+            return null;
+        }
+    }
+
+    private static void putMessages(Map<String, Object> frame, List<Envelope> messages) {
+        List<String> lines = new ArrayList<>(messages.size());
+        List<Long> ids = new ArrayList<>(messages.size());
+        for (Envelope message : messages) {
+            lines.add(message.line());
+            ids.add(message.id());
+        }
+        frame.put("messages", lines);
+        frame.put("msgIds", ids);
+    }
+
+    static String write(Object frame) {
+        try {
+            return MAPPER.writeValueAsString(frame);
+        } catch (JsonProcessingException ex) {
+            throw new IllegalArgumentException("Cannot encode chat frame", ex);
+        }
+    }
+}
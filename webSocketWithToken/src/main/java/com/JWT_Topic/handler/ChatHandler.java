@@ -1,85 +1,316 @@
 package com.JWT_Topic.handler;
 
+import com.JWT_Topic.entity.Role;
+import com.JWT_Topic.service.ChatHistory;
 import com.JWT_Topic.service.JWTService;
+import com.JWT_Topic.service.MessageIds;
+import com.JWT_Topic.service.UsernameFilter;
+import com.fasterxml.jackson.databind.JsonNode;
 import org.springframework.web.socket.*;
 import org.springframework.web.socket.handler.TextWebSocketHandler;
 
 import java.io.IOException;
-import java.net.URI;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
 
 public class ChatHandler extends TextWebSocketHandler {
 
     private final JWTService jwtService;
-    private final Map<String, WebSocketSession> sessions = new ConcurrentHashMap<>();
-    private final Map<String, List<String>> offlineMessages = new ConcurrentHashMap<>();
+    private final OutboundQueueManager outboundQueues;
+    private final DeliveryWindowManager deliveryWindows;
+    private final OfflineDelivery offline;
+    private final UsernameFilter knownUsers;
+    private final SessionRegistry sessions;
+    private final UserDelivery userDelivery;
+    private final RoomRegistry rooms;
+    private final RoomFanout roomFanout;
+    private final PresenceService presence;
+    private final SendRateLimiter rateLimiter;
+    private final HeartbeatManager heartbeats;
+    private final ConversationDispatcher dispatcher;
+    private final ChatHistory history;
+    private final MessageIds messageIds;
+    private final int maxConversations;
+    private final long typingIntervalNanos;
 
-    public ChatHandler(JWTService jwtService) {
+    public ChatHandler(JWTService jwtService, OutboundQueueManager outboundQueues,
+                       DeliveryWindowManager deliveryWindows, OfflineDelivery offline,
+                       UsernameFilter knownUsers, SessionRegistry sessions, UserDelivery userDelivery,
+                       RoomRegistry rooms, RoomFanout roomFanout, PresenceService presence,
+                       SendRateLimiter rateLimiter, HeartbeatManager heartbeats,
+                       ConversationDispatcher dispatcher, ChatHistory history, MessageIds messageIds,
+                       int maxConversations, long typingIntervalMillis) {
         this.jwtService = jwtService;
+        this.outboundQueues = outboundQueues;
+        this.deliveryWindows = deliveryWindows;
+        this.offline = offline;
+        this.knownUsers = knownUsers;
+        this.sessions = sessions;
+        this.userDelivery = userDelivery;
+        this.rooms = rooms;
+        this.roomFanout = roomFanout;
+        this.presence = presence;
+        this.rateLimiter = rateLimiter;
+        this.heartbeats = heartbeats;
+        this.dispatcher = dispatcher;
+        this.history = history;
+        this.messageIds = messageIds;
+        this.maxConversations = maxConversations;
+        this.typingIntervalNanos = TimeUnit.MILLISECONDS.toNanos(typingIntervalMillis);
     }
 
     @Override
     public void afterConnectionEstablished(WebSocketSession session) throws Exception {
-        String token = getParam(session, "token");
-        String username = jwtService.getUsername(token);
-        sessions.put(username, session);
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        OutboundQueue queue = outboundQueues.open(session, offline);
+        DeliveryWindow window = deliveryWindows.open(session, queue, offline);
+        Conversations.open(session, maxConversations, target -> presence.unsubscribe(session, target));
+        closeEvicted(sessions.register(principal.username(), principal.userId(), session));
+        presence.changed(principal.username());
+        heartbeats.open(session);
 
-        // Send offline messages if any
-        List<String> messages = offlineMessages.getOrDefault(username, new ArrayList<>());
-        for (String msg : messages) {
-            session.sendMessage(new TextMessage(msg));
-        }
-        offlineMessages.remove(username); // Clear after sending
+        window.drainBacklog();
     }
 
     @Override
     public void handleTextMessage(WebSocketSession session, TextMessage message) throws Exception {
-        String token = getParam(session, "token");
-        String sender = jwtService.getUsername(token);
-        String senderRole = jwtService.getRole(token);
-        String target = getParam(session, "targetUsername");
-
-        if (!isAllowed(senderRole, jwtService.getRoleByUsername(target))) {
-            session.sendMessage(new TextMessage("❌ Communication not allowed with this role."));
+        Heartbeat.of(session).touch();
+        JsonNode command = ChatFrames.command(message.getPayload());
+        if (!isExempt(command) && !acquireSend(session)) {
+            return;
+        }
+        if (command != null) {
+            handleCommand(session, command);
             return;
         }
 
-        String fullMessage = "[" + sender + "] → " + message.getPayload();
-        WebSocketSession targetSession = sessions.get(target);
-
-        if (targetSession != null && targetSession.isOpen()) {
-            targetSession.sendMessage(new TextMessage(fullMessage));
-        } else {
-            offlineMessages.computeIfAbsent(target, k -> new ArrayList<>()).add(fullMessage);
+        // Plain lines go to the default recipient picked at connect time, if any
+        String target = ChatPrincipal.of(session).target();
+        if (target == null) {
+            reply(session, "❌ No recipient, send {\"type\":\"msg\",\"to\":...,\"body\":...}.");
+            return;
         }
+        dispatchDirect(session, target, message.getPayload());
+    }
+
+    @Override
+    protected void handlePongMessage(WebSocketSession session, PongMessage message) {
+        heartbeats.pong(session, message);
     }
 
     @Override
     public void afterConnectionClosed(WebSocketSession session, CloseStatus status) {
-        sessions.values().removeIf(s -> s.equals(session));
+        sessions.unregister(session);
+        heartbeats.close(session);
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        if (principal != null) {
+            presence.changed(principal.username());
+            if (sessions.devices(principal.username()) == 0) {
+                rateLimiter.release(principal.username());
+            }
+        }
+        Conversations conversations = Conversations.of(session);
+        if (conversations != null) {
+            for (String target : conversations.targets()) {
+                presence.unsubscribe(session, target);
+            }
+        }
+        OutboundQueue queue = OutboundQueue.of(session);
+        if (queue != null) {
+            queue.close();
+        }
+        DeliveryWindow window = DeliveryWindow.of(session);
+        if (window != null) {
+            window.close();
+        }
     }
 
     // ========== Helper Methods ==========
 
-    private String getParam(WebSocketSession session, String key) {
-        URI uri = session.getUri();
-        if (uri == null) return null;
-        String[] params = uri.getQuery().split("&");
-        for (String param : params) {
-            String[] parts = param.split("=");
-            if (parts.length == 2 && parts[0].equals(key)) {
-                return parts[1];
+    /**
+     * Acks only release server state and typing signals have their own throttle,
+     * so neither is taken from the send budget.
+     */
+    private static boolean isExempt(JsonNode command) {
+        if (command == null) {
+            return false;
+        }
+        String type = command.path("type").asText();
+        return type.equals("ack") || type.equals("typing");
+    }
+
+    /**
+     * Takes one send from the user's budget; over the limit, replies with the
+     * time to wait instead and returns {@code false}.
+     */
+    private boolean acquireSend(WebSocketSession session) {
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        long retryAfter = rateLimiter.tryAcquire(principal.username(), principal.role());
+        if (retryAfter == 0) {
+            return true;
+        }
+        OutboundQueue.of(session).offer(ChatFrames.error("rate_limited", retryAfter), null);
+        return false;
+    }
+
+    private void handleCommand(WebSocketSession session, JsonNode command) {
+        String type = command.path("type").asText();
+        switch (type) {
+            case "ack" -> DeliveryWindow.of(session).ack(command.path("upTo").asLong(-1));
+            case "msg" -> {
+                String target = command.path("to").asText("");
+                if (target.isBlank()) {
+                    reply(session, "❌ Missing recipient.");
+                } else {
+                    dispatchDirect(session, target, command.path("body").asText(""));
+                }
+            }
+            case "typing" -> sendTyping(session, command.path("to").asText(""));
+            case "join", "leave", "room" -> handleRoomCommand(session, type, command);
+            default -> reply(session, "❌ Unknown command.");
+        }
+    }
+
+    /**
+     * Hands the message to the conversation's dispatcher lane, keeping the lookup and the
+     * delivery off this container thread.
+     */
+    private void dispatchDirect(WebSocketSession session, String target, String body) {
+        String sender = ChatPrincipal.of(session).username();
+        if (!dispatcher.dispatch(sender, target, () -> sendDirect(session, target, body))) {
+            reply(session, "❌ Server busy, try again later.");
+        }
+    }
+
+    private void sendDirect(WebSocketSession session, String target, String body) {
+        Conversations.Conversation conversation = resolve(session, target);
+        if (conversation == null) {
+            reply(session, "❌ User not found.");
+            return;
+        }
+        if (!conversation.allowed()) {
+            reply(session, "❌ Communication not allowed with this role.");
+            return;
+        }
+
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        String fullMessage = "[" + principal.username() + "] → " + body;
+        ByteBuffer binary = binaryFrame(principal, sessions.sessions(target), body);
+        long id = messageIds.next();
+        if (!userDelivery.deliver(target, id, fullMessage, binary)) {
+            reply(session, "❌ This user has too many pending messages, try again later.");
+            return;
+        }
+        history.record(id, principal.username(), target, body);
+    }
+
+    /**
+     * Typing signals are dropped silently unless the session already has an allowed
+     * handle for the target, so they never cost a role lookup, and at most one per
+     * conversation is forwarded per interval however often the client sends them.
+     */
+    private void sendTyping(WebSocketSession session, String target) {
+        Conversations conversations = Conversations.of(session);
+        Conversations.Conversation conversation = conversations.get(target);
+        if (conversation == null || !conversation.allowed()
+                || !conversations.typingAllowed(target, System.nanoTime(), typingIntervalNanos)) {
+            return;
+        }
+        userDelivery.signal(target, ChatFrames.typing(ChatPrincipal.of(session).username()));
+    }
+
+    /**
+     * Encodes the message for the target's binary devices, if it has any.
+     */
+    private static ByteBuffer binaryFrame(ChatPrincipal sender, WebSocketSession[] devices, String body) {
+        for (WebSocketSession device : devices) {
+            if (BinaryChatHandler.isBinary(device)) {
+                long senderId = sender.userId() != null ? sender.userId() : 0L;
+                return BinaryFrameCodec.encodeText(senderId, ChatPrincipal.of(device).userId(), 0L, body);
             }
         }
         return null;
     }
 
-    private boolean isAllowed(String senderRole, String targetRole) {
-        if (senderRole.equals("user") && targetRole.equals("user")) return false;
-        return true;
+    /**
+     * Returns the session's handle for the target, resolving it on first use;
+     * {@code null} if there is no such user. Unknown targets are not cached.
+     */
+    private Conversations.Conversation resolve(WebSocketSession session, String target) {
+        Conversations conversations = Conversations.of(session);
+        Conversations.Conversation conversation = conversations.get(target);
+        if (conversation != null) {
+            return conversation;
+        }
+        // The Bloom filter rejects most unknown targets before the role lookup
+        if (!knownUsers.mightContain(target)) {
+            return null;
+        }
+        Role targetRole = RolePermissions.parse(jwtService.getRoleByUsername(target));
+        if (targetRole == null) {
+            return null;
+        }
+        conversation = new Conversations.Conversation(target, targetRole,
+                RolePermissions.allowed(ChatPrincipal.of(session).role(), targetRole));
+        conversations.put(conversation);
+        if (conversation.allowed()) {
+            presence.subscribe(session, target);
+            // This runs on a dispatcher lane: if the session closed meanwhile, its close
+            // callback may already have unsubscribed everything and would miss this one
+            if (!session.isOpen()) {
+                presence.unsubscribe(session, target);
+            }
+        }
+        return conversation;
+    }
+
+    private void handleRoomCommand(WebSocketSession session, String type, JsonNode command) {
+        String username = ChatPrincipal.of(session).username();
+        String room = command.path("room").asText("");
+        if (room.isBlank()) {
+            reply(session, "❌ Missing room.");
+            return;
+        }
+        switch (type) {
+            case "join" -> {
+                if (!rooms.join(room, username)) {
+                    reply(session, "❌ This room is full.");
+                }
+            }
+            case "leave" -> rooms.leave(room, username);
+            default -> sendToRoom(session, room, command.path("body").asText(""));
+        }
+    }
+
+    private void sendToRoom(WebSocketSession session, String room, String body) {
+        ChatPrincipal principal = ChatPrincipal.of(session);
+        if (!rooms.isMember(room, principal.username())) {
+            reply(session, "❌ You are not a member of this room.");
+            return;
+        }
+        // Rooms are made of customers, so only roles allowed to talk to them may post.
+        if (!RolePermissions.allowed(principal.role(), Role.USER)) {
+            reply(session, "❌ Communication not allowed with this role.");
+            return;
+        }
+        roomFanout.send(room, principal, body);
+    }
+
+    /**
+     * Closes the oldest device of a user who just connected one device too many.
+     */
+    static void closeEvicted(WebSocketSession evicted) {
+        if (evicted == null) {
+            return;
+        }
+        try {
+            evicted.close(CloseStatus.POLICY_VIOLATION.withReason("Connected from too many devices"));
+        } catch (IOException ignored) {
+            // the session is going away either way
+        }
+    }
+
+    private void reply(WebSocketSession session, String text) {
+        OutboundQueue.of(session).offer(new TextMessage(text), null);
     }
 }
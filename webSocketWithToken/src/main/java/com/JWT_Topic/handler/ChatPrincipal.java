@@ -0,0 +1,19 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.entity.Role;
+import org.springframework.web.socket.WebSocketSession;
+
+/**
+ * Identity of a chat connection, resolved once during the handshake and
+ * kept in the session attributes for the lifetime of the socket.
+ * {@code userId} is {@code null} for tokens issued before it was added as a claim;
+ * {@code target} is the optional default recipient given at connect time.
+ */
+public record ChatPrincipal(String username, Role role, String target, Long userId) {
+
+    public static final String ATTRIBUTE = ChatPrincipal.class.getName();
+
+    public static ChatPrincipal of(WebSocketSession session) {
+        return (ChatPrincipal) session.getAttributes().get(ATTRIBUTE);
+    }
+}
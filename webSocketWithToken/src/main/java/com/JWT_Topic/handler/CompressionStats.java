@@ -0,0 +1,104 @@
+package com.JWT_Topic.handler;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketExtension;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+
+/**
+ * Estimates what permessage-deflate gains and costs on the chat traffic.
+ * <p>
+ * The container compresses frames internally and exposes no counters, so a sample of
+ * the frames sent on sessions that negotiated the extension is deflated again here
+ * (raw deflate, as the extension does) to record the compression ratio and CPU time.
+ */
+public class CompressionStats {
+
+    private static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+
+    private final double sampleRate;
+    private final DistributionSummary ratio;
+    private final DistributionSummary uncompressedBytes;
+    private final Timer cpuTime;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    private final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.DEFAULT_COMPRESSION, true));
+    private final ThreadLocal<byte[]> scratch = ThreadLocal.withInitial(() -> new byte[64 * 1024]);
+
+    public CompressionStats(MeterRegistry meterRegistry, double sampleRate) {
+        this.sampleRate = sampleRate;
+        this.ratio = DistributionSummary.builder("chat.compression.ratio")
+                .description("uncompressed / compressed size of sampled frames")
+                .publishPercentiles(0.5, 0.9)
+                .register(meterRegistry);
+        this.uncompressedBytes = DistributionSummary.builder("chat.compression.frame.bytes")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.cpuTime = Timer.builder("chat.compression.cpu")
+                .description("CPU time to deflate sampled frames")
+                .register(meterRegistry);
+    }
+
+    void sent(WebSocketSession session, WebSocketMessage<?> message) {
+        if (sampleRate <= 0 || ThreadLocalRandom.current().nextDouble() >= sampleRate || !deflateNegotiated(session)) {
+            return;
+        }
+        byte[] input = bytes(message);
+        if (input == null || input.length == 0) {
+            return;
+        }
+
+        Deflater deflater = deflaters.get();
+        byte[] output = scratch.get();
+        long start = cpuNanos();
+        deflater.reset();
+        deflater.setInput(input);
+        deflater.finish();
+        long compressed = 0;
+        while (!deflater.finished()) {
+            compressed += deflater.deflate(output);
+        }
+        long cpu = cpuNanos() - start;
+
+        uncompressedBytes.record(input.length);
+        ratio.record((double) input.length / Math.max(1, compressed));
+        cpuTime.record(cpu, TimeUnit.NANOSECONDS);
+    }
+
+    private long cpuNanos() {
+        return threads.isCurrentThreadCpuTimeSupported() ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+    }
+
+    private static boolean deflateNegotiated(WebSocketSession session) {
+        for (WebSocketExtension extension : session.getExtensions()) {
+            if (PERMESSAGE_DEFLATE.equals(extension.getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] bytes(WebSocketMessage<?> message) {
+        if (message instanceof TextMessage text) {
+            return text.asBytes();
+        }
+        if (message instanceof BinaryMessage binary) {
+            ByteBuffer payload = binary.getPayload().duplicate();
+            byte[] bytes = new byte[payload.remaining()];
+            payload.get(bytes);
+            return bytes;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,191 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.cluster.HashRing;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs direct-message work (permission check, role lookup, delivery) off the container
+ * thread that read the frame, so a slow query never stalls reading from the socket.
+ * <p>
+ * Each conversation is hashed to one of a fixed number of lanes. A lane is a lock-free
+ * queue drained by at most one worker at a time, the way {@link OutboundQueue} drains,
+ * so the messages of a conversation keep their order while different conversations run
+ * in parallel on the worker pool. A worker gives its lane up after a batch so that busy
+ * lanes cannot starve the others. A lane that is too deep refuses new work.
+ * <p>
+ * On shutdown {@link ChatDrain} calls {@link #stop} while the sessions are still open:
+ * new work is refused and the queued tasks get to run, so their replies and deliveries
+ * are flushed and closed with the sessions like any other frame.
+ */
+@Component
+public class ConversationDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversationDispatcher.class);
+
+    private final Lane[] lanes;
+    private final int mask;
+    private final int maxLaneDepth;
+    private final int batchSize;
+    private final ExecutorService executor;
+
+    private final AtomicLong depth = new AtomicLong();
+    private final Timer laneWait;
+    private volatile boolean stopped;
+
+    public ConversationDispatcher(MeterRegistry meterRegistry,
+                                  @Value("${chat.dispatch.lanes:256}") int lanes,
+                                  @Value("${chat.dispatch.workers:16}") int workers,
+                                  @Value("${chat.dispatch.max-lane-depth:10000}") int maxLaneDepth,
+                                  @Value("${chat.dispatch.batch-size:64}") int batchSize,
+                                  @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads) {
+        int size = Integer.highestOneBit(Math.max(1, lanes - 1)) << 1;
+        this.lanes = new Lane[size];
+        for (int i = 0; i < size; i++) {
+            this.lanes[i] = new Lane();
+        }
+        this.mask = size - 1;
+        this.maxLaneDepth = maxLaneDepth;
+        this.batchSize = batchSize;
+        AtomicInteger counter = new AtomicInteger();
+        // Lanes bound the parallelism either way; virtual workers only make a blocked lookup cheaper
+        this.executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-dispatch-", 0).factory())
+                : Executors.newFixedThreadPool(workers, r -> {
+                    Thread thread = new Thread(r, "chat-dispatch-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+
+        meterRegistry.gauge("chat.dispatch.depth", depth);
+        this.laneWait = Timer.builder("chat.dispatch.wait")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Queues the task on the lane of the sender → target conversation;
+     * {@code false} if that lane is full or the dispatcher is stopped.
+     */
+    public boolean dispatch(String sender, String target, Runnable task) {
+        if (stopped) {
+            return false;
+        }
+        Lane lane = lanes[spread(HashRing.pairKey(sender, target).hashCode()) & mask];
+        if (lane.size.incrementAndGet() > maxLaneDepth) {
+            lane.size.decrementAndGet();
+            return false;
+        }
+        depth.incrementAndGet();
+        lane.queue.add(new Task(task, System.nanoTime()));
+        schedule(lane);
+        return true;
+    }
+
+    /**
+     * Tasks waiting over all lanes.
+     */
+    public long depth() {
+        return depth.get();
+    }
+
+    /**
+     * Refuses new tasks and waits until every lane is empty and idle;
+     * {@code false} if tasks were still queued or running at the deadline.
+     */
+    public boolean stop(long deadlineNanos) {
+        stopped = true;
+        while (!idle()) {
+            if (System.nanoTime() - deadlineNanos >= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        stopped = true;
+        executor.shutdown();
+    }
+
+    private boolean idle() {
+        if (depth.get() > 0) {
+            return false;
+        }
+        for (Lane lane : lanes) {
+            if (lane.draining.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void schedule(Lane lane) {
+        if (lane.draining.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> drain(lane));
+            } catch (RejectedExecutionException ex) {
+                // Shut down after stop() gave up waiting: what is left is dropped
+                lane.draining.set(false);
+                log.warn("Dropping {} chat dispatch tasks queued at shutdown", lane.size.get());
+            }
+        }
+    }
+
+    private void drain(Lane lane) {
+        try {
+            Task task;
+            for (int i = 0; i < batchSize && (task = lane.queue.poll()) != null; i++) {
+                lane.size.decrementAndGet();
+                depth.decrementAndGet();
+                laneWait.record(System.nanoTime() - task.enqueuedNanos, TimeUnit.NANOSECONDS);
+                try {
+                    task.work.run();
+                } catch (RuntimeException ex) {
+                    log.warn("Chat dispatch task failed", ex);
+                }
+            }
+        } finally {
+            lane.draining.set(false);
+            // Either the batch ended or a task was queued after the last poll
+            if (!lane.queue.isEmpty()) {
+                schedule(lane);
+            }
+        }
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final class Lane {
+        final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        final AtomicInteger size = new AtomicInteger();
+        final AtomicBoolean draining = new AtomicBoolean();
+    }
+
+    private record Task(Runnable work, long enqueuedNanos) {
+    }
+}
@@ -0,0 +1,122 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.entity.Role;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Conversation handles of one session: the first message to a target resolves its role
+ * and the permission once, later messages to the same target reuse the result.
+ * Messages of one session to different targets may be handled in parallel
+ * ({@link ConversationDispatcher}), so access goes through a lock; it is held only for
+ * map operations, never during a lookup.
+ * Handles live as long as the session; the least recently used is dropped past the limit,
+ * and the eviction listener is told which target was dropped.
+ * <p>
+ * Each handle also remembers when the session last sent a typing signal to the target,
+ * for throttling.
+ */
+public class Conversations {
+
+    public static final String ATTRIBUTE = Conversations.class.getName();
+
+    /**
+     * A resolved target. {@code allowed} is the sender → target permission.
+     */
+    public record Conversation(String target, Role targetRole, boolean allowed) {
+    }
+
+    private final Map<String, Conversation> handles;
+    private final Map<String, Long> lastTyping = new HashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private Conversations(int maxHandles, Consumer<String> evicted) {
+        this.handles = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Conversation> eldest) {
+                if (size() <= maxHandles) {
+                    return false;
+                }
+                lastTyping.remove(eldest.getKey());
+                evicted.accept(eldest.getKey());
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Attaches an empty set of handles to the session and returns it.
+     */
+    public static Conversations open(WebSocketSession session, int maxHandles, Consumer<String> evicted) {
+        Conversations conversations = new Conversations(maxHandles, evicted);
+        session.getAttributes().put(ATTRIBUTE, conversations);
+        return conversations;
+    }
+
+    public static Conversations of(WebSocketSession session) {
+        return (Conversations) session.getAttributes().get(ATTRIBUTE);
+    }
+
+    public Conversation get(String target) {
+        lock.lock();
+        try {
+            return handles.get(target);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void put(Conversation conversation) {
+        lock.lock();
+        try {
+            handles.put(conversation.target(), conversation);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Whether a typing signal to the target may be sent now, at least {@code minIntervalNanos}
+     * after the previous one; records it if so.
+     */
+    public boolean typingAllowed(String target, long nowNanos, long minIntervalNanos) {
+        lock.lock();
+        try {
+            Long last = lastTyping.get(target);
+            if (last != null && nowNanos - last < minIntervalNanos) {
+                return false;
+            }
+            lastTyping.put(target, nowNanos);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Targets of the open handles.
+     */
+    public List<String> targets() {
+        lock.lock();
+        try {
+            return List.copyOf(handles.keySet());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return handles.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,320 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.service.Envelope;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * At-least-once delivery to one text session. Every chat message gets a session-scoped,
+ * increasing id and stays in the window until the client acknowledges it with a
+ * cumulative {@code {"type":"ack","upTo":id}}; unacknowledged messages are sent again
+ * with the same id after the ack timeout, and go back to the offline store when the
+ * session closes. Besides that sequence every frame carries the message's own id
+ * ({@code msgId}), which survives the trip through the offline store, so a client that
+ * reconnects can drop what it had already received. Messages put back into the store
+ * keep their ids and with them their place in the user's queue.
+ * <p>
+ * The window is bounded. Once it is full, new messages wait in the offline store and are
+ * pulled in order as acks free up room, so a slow client costs a fixed amount of memory.
+ * <p>
+ * The offline store is per user, so a message another device of the user took is not
+ * stored. A window that has to refuse such a message holds its own copy instead, up to
+ * one window's worth, and sends it before anything from the store. Held copies go back to
+ * the store with the unacknowledged messages when the session closes.
+ */
+public class DeliveryWindow implements OfflineDelivery.BatchSink {
+
+    public static final String ATTRIBUTE = DeliveryWindow.class.getName();
+
+    private final WebSocketSession session;
+    private final String username;
+    private final OutboundQueue queue;
+    private final OfflineDelivery offline;
+    private final DeliveryWindowManager manager;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Deque<Pending> pending = new ArrayDeque<>();
+    /** Copies of messages other devices took while this window had no room. */
+    private final Deque<Envelope> held = new ArrayDeque<>();
+    private long nextId = 1;
+    private boolean closed;
+
+    /** Bumped after every message routed to the offline store while this session is open; 0 when none wait there. */
+    private final AtomicLong backlog = new AtomicLong();
+    private final AtomicBoolean drainingBacklog = new AtomicBoolean();
+
+    DeliveryWindow(WebSocketSession session, String username, OutboundQueue queue, OfflineDelivery offline,
+                   DeliveryWindowManager manager) {
+        this.session = session;
+        this.username = username;
+        this.queue = queue;
+        this.offline = offline;
+        this.manager = manager;
+    }
+
+    public static DeliveryWindow of(WebSocketSession session) {
+        return (DeliveryWindow) session.getAttributes().get(ATTRIBUTE);
+    }
+
+    /**
+     * Sends the message if the window has room and nothing older is waiting in the offline
+     * store, otherwise stores it. {@code false} only if the offline store refused it.
+     */
+    public boolean deliver(Envelope message) {
+        if (offer(message)) {
+            return true;
+        }
+        if (!offline.store(username, message)) {
+            return false;
+        }
+        markBacklog();
+        return true;
+    }
+
+    /**
+     * Sends the message only if the window has room and nothing older is waiting in the
+     * offline store; {@code false} leaves storing it to the caller.
+     */
+    public boolean offer(Envelope message) {
+        lock.lock();
+        try {
+            if (closed || backlog.get() != 0 || !held.isEmpty() || pending.size() >= manager.windowSize()) {
+                return false;
+            }
+            send(message);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Keeps a copy of a message this window refused but another device of the user took,
+     * to send once the window has room; {@code false} if this window holds too many already.
+     */
+    public boolean hold(Envelope message) {
+        lock.lock();
+        try {
+            if (closed || held.size() >= manager.windowSize()) {
+                return false;
+            }
+            held.addLast(message);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Records that a message for this user went to the offline store, so later messages
+     * queue up behind it and the window pulls it in once it has room.
+     */
+    public void markBacklog() {
+        backlog.incrementAndGet();
+    }
+
+    /**
+     * Releases every message up to {@code upTo} and refills the window from the offline store.
+     */
+    public void ack(long upTo) {
+        int released = 0;
+        lock.lock();
+        try {
+            while (!pending.isEmpty() && pending.peekFirst().id <= upTo) {
+                pending.pollFirst();
+                released++;
+            }
+        } finally {
+            lock.unlock();
+        }
+        manager.inFlightChanged(-released);
+        if (hasBacklog()) {
+            drainBacklog();
+        }
+    }
+
+    /**
+     * Moves the held copies and then the user's stored messages into the window, as far as it has room.
+     */
+    public void drainBacklog() {
+        if (!drainingBacklog.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            if (!sendHeld()) {
+                return;
+            }
+            long seen = backlog.get();
+            if (offline.deliver(username, this)) {
+                // Anything stored while the drain ran changed the counter and is picked up next time.
+                backlog.compareAndSet(seen, 0);
+            } else if (seen == 0) {
+                markBacklog();
+            }
+        } finally {
+            drainingBacklog.set(false);
+        }
+    }
+
+    @Override
+    public int capacity() {
+        lock.lock();
+        try {
+            return closed ? 0 : manager.windowSize() - pending.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean send(List<Envelope> batch) {
+        List<Envelope> rejected;
+        lock.lock();
+        try {
+            int room = closed ? 0 : Math.min(batch.size(), manager.windowSize() - pending.size());
+            if (room > 0) {
+                long firstId = nextId;
+                for (Envelope message : batch.subList(0, room)) {
+                    pending.addLast(new Pending(nextId++, message, System.nanoTime()));
+                }
+                manager.inFlightChanged(room);
+                queue.offer(ChatFrames.batch(firstId, batch.subList(0, room)), null);
+            }
+            if (room == batch.size()) {
+                return true;
+            }
+            rejected = batch.subList(room, batch.size());
+        } finally {
+            lock.unlock();
+        }
+        offline.requeue(username, rejected);
+        return false;
+    }
+
+    /**
+     * Sends again, with their original ids, the messages unacknowledged for longer than the
+     * ack timeout. A session that keeps ignoring them is closed; its messages go back to
+     * the offline store.
+     */
+    void redeliver(long nowNanos) {
+        boolean unreliable = false;
+        int resent = 0;
+        lock.lock();
+        try {
+            for (Pending message : pending) {
+                if (nowNanos - message.sentAt < manager.ackTimeoutNanos()) {
+                    continue;
+                }
+                if (message.attempts >= manager.maxRedeliveries()) {
+                    unreliable = true;
+                    break;
+                }
+                message.sentAt = nowNanos;
+                message.attempts++;
+                resent++;
+                queue.offer(ChatFrames.message(message.id, message.message), null);
+                if (closed) {
+                    // the queue's CLOSE overflow policy closed the session from inside offer()
+                    break;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        manager.redelivered(resent);
+        if (unreliable) {
+            try {
+                session.close(CloseStatus.SESSION_NOT_RELIABLE);
+            } catch (IOException ignored) {
+                // the session is going away either way
+            }
+        }
+    }
+
+    boolean hasBacklog() {
+        if (backlog.get() != 0) {
+            return true;
+        }
+        lock.lock();
+        try {
+            return !held.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops the window and puts every unacknowledged or held message back into the offline
+     * store, ahead of anything newer, to be delivered again with the same message id on the
+     * next connect. Another device may get a held message a second time; its id tells the
+     * client it is a duplicate.
+     */
+    public void close() {
+        List<Envelope> unacked = new ArrayList<>();
+        int inFlight;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (Pending message : pending) {
+                unacked.add(message.message);
+            }
+            // Held copies were never sent, so only the pending ones leave the in-flight count
+            inFlight = pending.size();
+            pending.clear();
+            unacked.addAll(held);
+            held.clear();
+        } finally {
+            lock.unlock();
+        }
+        manager.closed(this, inFlight);
+        offline.requeue(username, unacked);
+    }
+
+    /**
+     * Sends held copies while there is room; {@code true} once none is left.
+     */
+    private boolean sendHeld() {
+        lock.lock();
+        try {
+            while (!held.isEmpty() && !closed && pending.size() < manager.windowSize()) {
+                send(held.pollFirst());
+            }
+            return held.isEmpty();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void send(Envelope message) {
+        Pending pendingMessage = new Pending(nextId++, message, System.nanoTime());
+        pending.addLast(pendingMessage);
+        manager.inFlightChanged(1);
+        // Queued under the lock so frames leave in id order.
+        queue.offer(ChatFrames.message(pendingMessage.id, message), null);
+    }
+
+    private static final class Pending {
+        final long id;
+        final Envelope message;
+        long sentAt;
+        int attempts;
+
+        Pending(long id, Envelope message, long sentAt) {
+            this.id = id;
+            this.message = message;
+            this.sentAt = sentAt;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.JWT_Topic.handler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the per-session {@link DeliveryWindow}s and runs the timer that redelivers
+ * unacknowledged messages and refills windows from the offline store.
+ */
+@Component
+public class DeliveryWindowManager {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryWindowManager.class);
+
+    private final int windowSize;
+    private final long ackTimeoutNanos;
+    private final int maxRedeliveries;
+
+    private final Set<DeliveryWindow> windows = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer;
+
+    private final AtomicLong inFlight = new AtomicLong();
+    private final Counter redeliveries;
+
+    public DeliveryWindowManager(MeterRegistry meterRegistry,
+                                 @Value("${chat.delivery.window-size:256}") int windowSize,
+                                 @Value("${chat.delivery.ack-timeout-ms:5000}") long ackTimeoutMillis,
+                                 @Value("${chat.delivery.max-redeliveries:5}") int maxRedeliveries,
+                                 @Value("${chat.delivery.redelivery-interval-ms:1000}") long intervalMillis) {
+        this.windowSize = windowSize;
+        this.ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        this.maxRedeliveries = maxRedeliveries;
+
+        this.redeliveries = meterRegistry.counter("chat.delivery.redelivered");
+        meterRegistry.gauge("chat.delivery.inflight", inFlight);
+
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-redelivery");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Attaches a new window, sending through the session's queue, and returns it.
+     */
+    public DeliveryWindow open(WebSocketSession session, OutboundQueue queue, OfflineDelivery offline) {
+        DeliveryWindow window = new DeliveryWindow(session, ChatPrincipal.of(session).username(), queue, offline, this);
+        session.getAttributes().put(DeliveryWindow.ATTRIBUTE, window);
+        windows.add(window);
+        return window;
+    }
+
+    /**
+     * Messages sent and not yet acknowledged, over all sessions.
+     */
+    public long inFlight() {
+        return inFlight.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        timer.shutdown();
+    }
+
+    int windowSize() {
+        return windowSize;
+    }
+
+    long ackTimeoutNanos() {
+        return ackTimeoutNanos;
+    }
+
+    int maxRedeliveries() {
+        return maxRedeliveries;
+    }
+
+    void inFlightChanged(int delta) {
+        inFlight.addAndGet(delta);
+    }
+
+    void redelivered(int messages) {
+        if (messages > 0) {
+            redeliveries.increment(messages);
+        }
+    }
+
+    void closed(DeliveryWindow window, int unacked) {
+        windows.remove(window);
+        inFlight.addAndGet(-unacked);
+    }
+
+    private void tick() {
+        long now = System.nanoTime();
+        for (DeliveryWindow window : windows) {
+            try {
+                window.redeliver(now);
+                if (window.hasBacklog()) {
+                    window.drainBacklog();
+                }
+            } catch (RuntimeException ex) {
+                log.warn("Redelivery failed", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.JWT_Topic.handler;
+
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Liveness of one session: the ping in flight, missed pongs, the last round-trip time
+ * and when the client last sent a message.
+ * <p>
+ * Pings carry an 8-byte sequence number that the client echoes in its pong. Each ping
+ * is timed twice: from being queued to being written (time spent in this server) and
+ * from being written to its pong coming back (network and client).
+ */
+public class Heartbeat {
+
+    public static final String ATTRIBUTE = Heartbeat.class.getName();
+
+    private final WebSocketSession session;
+    private final HeartbeatManager manager;
+
+    private volatile TimingWheel.Timeout timeout;
+    private volatile long lastActivityNanos = System.nanoTime();
+
+    private volatile long pingSeq;
+    private volatile long pingQueuedNanos;
+    private volatile long pingWrittenNanos;
+    private volatile boolean awaitingPong;
+    private volatile int missed;
+    private volatile long rttNanos = -1;
+
+    Heartbeat(WebSocketSession session, HeartbeatManager manager) {
+        this.session = session;
+        this.manager = manager;
+    }
+
+    public static Heartbeat of(WebSocketSession session) {
+        return (Heartbeat) session.getAttributes().get(ATTRIBUTE);
+    }
+
+    /**
+     * The client sent a message.
+     */
+    public void touch() {
+        lastActivityNanos = System.nanoTime();
+    }
+
+    /**
+     * Round-trip time of the last answered ping, or -1 if none was answered yet.
+     */
+    public long rttNanos() {
+        return rttNanos;
+    }
+
+    WebSocketSession session() {
+        return session;
+    }
+
+    long lastActivityNanos() {
+        return lastActivityNanos;
+    }
+
+    void scheduled(TimingWheel.Timeout timeout) {
+        this.timeout = timeout;
+    }
+
+    void cancel() {
+        TimingWheel.Timeout current = timeout;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * Counts the previous ping as missed if it is still unanswered; returns the number
+     * of pings missed in a row.
+     */
+    int checkMissed() {
+        if (awaitingPong) {
+            missed++;
+        }
+        return missed;
+    }
+
+    /**
+     * Starts a new ping and returns the frame to queue.
+     */
+    PingMessage nextPing(long nowNanos) {
+        long seq = pingSeq + 1;
+        pingSeq = seq;
+        pingQueuedNanos = nowNanos;
+        pingWrittenNanos = 0;
+        awaitingPong = true;
+        return new PingMessage(ByteBuffer.allocate(Long.BYTES).putLong(0, seq));
+    }
+
+    /**
+     * The outbound queue wrote the ping.
+     */
+    void pingWritten() {
+        long now = System.nanoTime();
+        pingWrittenNanos = now;
+        manager.queueWaited(now - pingQueuedNanos);
+    }
+
+    /**
+     * Any pong shows the client is alive; returns the round-trip time if it answers the
+     * latest written ping, otherwise -1.
+     */
+    long pong(ByteBuffer payload, long nowNanos) {
+        missed = 0;
+        if (payload.remaining() != Long.BYTES || payload.getLong(payload.position()) != pingSeq) {
+            return -1;
+        }
+        awaitingPong = false;
+        long written = pingWrittenNanos;
+        if (written == 0) {
+            return -1;
+        }
+        rttNanos = nowNanos - written;
+        return rttNanos;
+    }
+}
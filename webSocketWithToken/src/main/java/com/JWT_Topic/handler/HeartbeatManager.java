@@ -0,0 +1,150 @@
+package com.JWT_Topic.handler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.PongMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pings every session on one {@link TimingWheel} and closes the ones that stopped
+ * answering or stopped talking.
+ * <p>
+ * Every interval a session gets a ping through its outbound queue. A session that leaves
+ * {@code max-missed} pings in a row unanswered is closed with 1001 / "No pong", which
+ * clears half-open connections. A session whose client has sent no message for
+ * {@code idle-timeout-ms} is closed as idle; pongs do not count as activity.
+ * <p>
+ * Round-trip times ({@code chat.heartbeat.rtt}, ping written → pong) and queue waits
+ * ({@code chat.heartbeat.queue-wait}, ping queued → written) are exported with
+ * percentiles: a slow network shows in the first, a busy server in the second.
+ */
+@Component
+public class HeartbeatManager {
+
+    private final long intervalNanos;
+    private final int maxMissed;
+    private final long idleTimeoutNanos;
+
+    private final TimingWheel wheel;
+    private final ExecutorService closer;
+
+    private final Timer rtt;
+    private final Timer queueWait;
+    private final Counter missedClosed;
+    private final Counter idleClosed;
+
+    public HeartbeatManager(MeterRegistry meterRegistry,
+                            @Value("${chat.heartbeat.interval-ms:25000}") long intervalMillis,
+                            @Value("${chat.heartbeat.max-missed:2}") int maxMissed,
+                            @Value("${chat.heartbeat.idle-timeout-ms:1800000}") long idleTimeoutMillis,
+                            @Value("${chat.heartbeat.tick-ms:100}") long tickMillis,
+                            @Value("${chat.heartbeat.wheel-size:512}") int wheelSize) {
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.maxMissed = maxMissed;
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.wheel = new TimingWheel("chat-heartbeat", tickMillis, wheelSize);
+        // Closing writes a frame and may block on a dead connection, so it stays off the wheel thread
+        this.closer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "chat-heartbeat-close");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        this.rtt = Timer.builder("chat.heartbeat.rtt")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("chat.heartbeat.queue-wait")
+                .publishPercentiles(0.5, 0.9, 0.99)
+                .register(meterRegistry);
+        this.missedClosed = Counter.builder("chat.heartbeat.closed").tag("reason", "missed-pongs").register(meterRegistry);
+        this.idleClosed = Counter.builder("chat.heartbeat.closed").tag("reason", "idle").register(meterRegistry);
+    }
+
+    /**
+     * Attaches a heartbeat to the session and schedules its first ping at a random point
+     * of the first interval, so sessions that connect together are not pinged together.
+     */
+    public Heartbeat open(WebSocketSession session) {
+        Heartbeat heartbeat = new Heartbeat(session, this);
+        session.getAttributes().put(Heartbeat.ATTRIBUTE, heartbeat);
+        schedule(heartbeat, ThreadLocalRandom.current().nextLong(intervalNanos));
+        return heartbeat;
+    }
+
+    public void pong(WebSocketSession session, PongMessage message) {
+        Heartbeat heartbeat = Heartbeat.of(session);
+        if (heartbeat == null) {
+            return;
+        }
+        long roundTrip = heartbeat.pong(message.getPayload(), System.nanoTime());
+        if (roundTrip >= 0) {
+            rtt.record(roundTrip, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void close(WebSocketSession session) {
+        Heartbeat heartbeat = Heartbeat.of(session);
+        if (heartbeat != null) {
+            heartbeat.cancel();
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        wheel.close();
+        closer.shutdown();
+    }
+
+    void queueWaited(long nanos) {
+        queueWait.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    private void schedule(Heartbeat heartbeat, long delayNanos) {
+        heartbeat.scheduled(wheel.schedule(() -> beat(heartbeat), delayNanos, TimeUnit.NANOSECONDS));
+    }
+
+    private void beat(Heartbeat heartbeat) {
+        WebSocketSession session = heartbeat.session();
+        if (!session.isOpen()) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (idleTimeoutNanos > 0 && now - heartbeat.lastActivityNanos() > idleTimeoutNanos) {
+            idleClosed.increment();
+            close(session, CloseStatus.GOING_AWAY.withReason("Idle timeout"));
+            return;
+        }
+        if (heartbeat.checkMissed() >= maxMissed) {
+            missedClosed.increment();
+            close(session, CloseStatus.GOING_AWAY.withReason("No pong"));
+            return;
+        }
+        OutboundQueue queue = OutboundQueue.of(session);
+        if (queue != null) {
+            queue.offer(heartbeat.nextPing(now), null);
+        }
+        schedule(heartbeat, intervalNanos);
+    }
+
+    private void close(WebSocketSession session, CloseStatus status) {
+        closer.execute(() -> {
+            try {
+                session.close(status);
+            } catch (IOException ignored) {
+                // the session is going away either way
+            }
+        });
+    }
+}
@@ -0,0 +1,153 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.service.Envelope;
+import com.JWT_Topic.service.OfflineMessageStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Moves messages between the offline store and session outbound queues,
+ * shared by the text and the binary chat endpoints.
+ * <p>
+ * Messages handed back after a failed delivery keep their ids, so they return to their
+ * old place ahead of anything newer, and are not subject to quotas. Messages that no
+ * session and no store took, without a sender left to tell, are counted as lost
+ * ({@code chat.offline.lost}).
+ */
+public class OfflineDelivery implements OutboundQueue.SpillHandler {
+
+    private static final Logger log = LoggerFactory.getLogger(OfflineDelivery.class);
+
+    private static final int PAGE_SIZE = 500;
+    private static final int BATCH_MAX_MESSAGES = 200;
+    private static final int BATCH_MAX_CHARS = 64 * 1024;
+
+    private final OfflineMessageStore offlineMessages;
+    private final Counter lost;
+
+    public OfflineDelivery(OfflineMessageStore offlineMessages, MeterRegistry meterRegistry) {
+        this.offlineMessages = offlineMessages;
+        this.lost = meterRegistry.counter("chat.offline.lost");
+    }
+
+    /**
+     * Where a drain sends its batches.
+     */
+    public interface BatchSink {
+
+        /** How many more messages the sink accepts right now. */
+        int capacity();
+
+        /**
+         * Sends one batch. {@code false} if it was refused, in which case the sink has
+         * already handed the batch back to the offline store and the drain stops.
+         */
+        boolean send(List<Envelope> batch);
+    }
+
+    /**
+     * Sink that queues each batch as one frame; a frame that cannot be queued or sent is
+     * spilled, which puts exactly its messages back into the offline store.
+     */
+    public static BatchSink toQueue(OutboundQueue queue, Function<List<Envelope>, WebSocketMessage<?>> batchFrame) {
+        return new BatchSink() {
+            @Override
+            public int capacity() {
+                return Integer.MAX_VALUE;
+            }
+
+            @Override
+            public boolean send(List<Envelope> batch) {
+                return queue.offer(batchFrame.apply(batch), batch);
+            }
+        };
+    }
+
+    /**
+     * Takes the pending messages page by page (each poll removes them atomically, so nothing
+     * sent meanwhile is lost) and sends them as a few batches, never more than the sink's
+     * capacity. Returns {@code true} once the store has nothing left for the user.
+     */
+    public boolean deliver(String username, BatchSink sink) {
+        while (true) {
+            int capacity = sink.capacity();
+            if (capacity <= 0) {
+                return false;
+            }
+            List<Envelope> page = offlineMessages.poll(username, Math.min(PAGE_SIZE, capacity));
+            if (page.isEmpty()) {
+                return true;
+            }
+            List<Envelope> batch = new ArrayList<>();
+            int chars = 0;
+            for (int i = 0; i < page.size(); i++) {
+                Envelope message = page.get(i);
+                int length = message.line().length();
+                if (!batch.isEmpty() && (batch.size() == BATCH_MAX_MESSAGES || chars + length > BATCH_MAX_CHARS)) {
+                    if (!sink.send(batch)) {
+                        requeue(username, page.subList(i, page.size()));
+                        return false;
+                    }
+                    batch = new ArrayList<>();
+                    chars = 0;
+                }
+                batch.add(message);
+                chars += length;
+            }
+            if (!sink.send(batch)) {
+                // Back-pressure: the rest stays in the store until the sink has room again.
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stores a message for a user who is not connected; {@code false} if the store refused it.
+     */
+    public boolean store(String username, Envelope message) {
+        return offlineMessages.append(username, message).accepted();
+    }
+
+    /**
+     * Registers a callback for messages the store made visible after the send that stored them returned.
+     */
+    public void subscribe(OfflineMessageStore.StoredListener listener) {
+        offlineMessages.subscribe(listener);
+    }
+
+    /**
+     * Puts messages back after a failed delivery; each keeps its id and so its place in the queue.
+     */
+    public void requeue(String username, List<Envelope> messages) {
+        int refused = 0;
+        for (Envelope message : messages) {
+            if (!offlineMessages.putBack(username, message).accepted()) {
+                refused++;
+            }
+        }
+        if (refused > 0) {
+            lost(refused);
+            log.warn("The offline store refused {} message(s) handed back for {}", refused, username);
+        }
+    }
+
+    /**
+     * Counts messages that nothing took and whose sender can no longer be told.
+     */
+    void lost(int messages) {
+        lost.increment(messages);
+    }
+
+    @Override
+    public void spill(WebSocketSession session, List<Envelope> messages) {
+        requeue(ChatPrincipal.of(session).username(), messages);
+    }
+}
@@ -0,0 +1,224 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.service.Envelope;
+import org.springframework.web.socket.CloseStatus;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound buffer of a single session. Any thread may {@link #offer} a frame; at most
+ * one drainer at a time writes to the session, so senders never block on a slow
+ * recipient and never race on the (non thread-safe) session.
+ */
+public class OutboundQueue {
+
+    public static final String ATTRIBUTE = OutboundQueue.class.getName();
+
+    public enum OverflowPolicy {
+        /** Discard the oldest queued frames until the new one fits. */
+        DROP_OLDEST,
+        /** Hand the new frame to the offline store instead of queueing it. */
+        SPILL_OFFLINE,
+        /** Close the session with 1013 (try again later). */
+        CLOSE
+    }
+
+    /**
+     * Receives chat messages that could not be delivered to the session.
+     */
+    public interface SpillHandler {
+        void spill(WebSocketSession session, List<Envelope> messages);
+    }
+
+    private final WebSocketSession session;
+    private final OutboundQueueManager manager;
+    private final SpillHandler spillHandler;
+
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicBoolean draining = new AtomicBoolean();
+    private volatile boolean closed;
+
+    OutboundQueue(WebSocketSession session, OutboundQueueManager manager, SpillHandler spillHandler) {
+        this.session = session;
+        this.manager = manager;
+        this.spillHandler = spillHandler;
+    }
+
+    public static OutboundQueue of(WebSocketSession session) {
+        return (OutboundQueue) session.getAttributes().get(ATTRIBUTE);
+    }
+
+    /**
+     * Queues a frame. {@code spill} holds the chat messages carried by the frame and is
+     * what gets handed to the offline store if the frame is rejected or fails to send.
+     */
+    public boolean offer(WebSocketMessage<?> message, List<Envelope> spill) {
+        Entry entry = new Entry(message, spill, message.getPayloadLength());
+        if (closed) {
+            spill(entry);
+            return false;
+        }
+        if (!reserve(entry)) {
+            return false;
+        }
+        queue.add(entry);
+        schedule();
+        return true;
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    public long bytes() {
+        return bytes.get();
+    }
+
+    public boolean isEmpty() {
+        return size.get() == 0;
+    }
+
+    /**
+     * Stops accepting frames and spills whatever is still queued.
+     */
+    public void close() {
+        closed = true;
+        Entry entry;
+        while ((entry = poll()) != null) {
+            spill(entry);
+        }
+    }
+
+    private boolean reserve(Entry entry) {
+        if (tryAccount(entry)) {
+            return true;
+        }
+        manager.overflowed();
+        switch (manager.overflowPolicy()) {
+            case DROP_OLDEST -> {
+                while (!tryAccount(entry)) {
+                    Entry oldest = poll();
+                    if (oldest == null) {
+                        // Larger than the whole queue
+                        spill(entry);
+                        return false;
+                    }
+                    manager.dropped();
+                    // Dropped from the socket, not from the conversation
+                    spill(oldest);
+                }
+                return true;
+            }
+            case CLOSE -> {
+                spill(entry);
+                closeOverloaded();
+                return false;
+            }
+            default -> {
+                spill(entry);
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Takes room for the entry if both limits allow it. Each counter is claimed with a
+     * CAS, so concurrent offers cannot overshoot; a message slot claimed for an entry
+     * whose bytes do not fit is given back.
+     */
+    private boolean tryAccount(Entry entry) {
+        int currentSize;
+        do {
+            currentSize = size.get();
+            if (currentSize >= manager.maxMessages()) {
+                return false;
+            }
+        } while (!size.compareAndSet(currentSize, currentSize + 1));
+
+        long currentBytes;
+        do {
+            currentBytes = bytes.get();
+            if (currentBytes + entry.bytes > manager.maxBytes()) {
+                size.decrementAndGet();
+                return false;
+            }
+        } while (!bytes.compareAndSet(currentBytes, currentBytes + entry.bytes));
+        manager.depthChanged(1);
+        return true;
+    }
+
+    private Entry poll() {
+        Entry entry = queue.poll();
+        if (entry != null) {
+            size.decrementAndGet();
+            bytes.addAndGet(-entry.bytes);
+            manager.depthChanged(-1);
+        }
+        return entry;
+    }
+
+    private void schedule() {
+        if (draining.compareAndSet(false, true)) {
+            manager.executor().execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        try {
+            Entry entry;
+            while ((entry = poll()) != null) {
+                if (!session.isOpen()) {
+                    spill(entry);
+                    continue;
+                }
+                try {
+                    session.sendMessage(entry.message);
+                    manager.sent(session, entry.message);
+                } catch (IOException | RuntimeException ex) {
+                    // Failed or exceeded the send time limit: the connection is no use any more,
+                    // and the rest of the queue is spilled once it is closed
+                    spill(entry);
+                    manager.sendFailed();
+                    closeQuietly(CloseStatus.SESSION_NOT_RELIABLE);
+                }
+            }
+        } finally {
+            draining.set(false);
+            // A frame may have been queued after the last poll but before the flag was cleared.
+            if (!queue.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    private void spill(Entry entry) {
+        if (spillHandler != null && entry.spill != null && !entry.spill.isEmpty()) {
+            spillHandler.spill(session, entry.spill);
+        }
+    }
+
+    private void closeOverloaded() {
+        closeQuietly(CloseStatus.SERVICE_OVERLOAD);
+    }
+
+    private void closeQuietly(CloseStatus status) {
+        try {
+            session.close(status);
+        } catch (IOException | RuntimeException ignored) {
+            // the session is going away either way
+        }
+    }
+
+    private record Entry(WebSocketMessage<?> message, List<Envelope> spill, int bytes) {
+    }
+}
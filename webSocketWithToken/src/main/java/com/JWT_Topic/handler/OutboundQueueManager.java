@@ -0,0 +1,145 @@
+package com.JWT_Topic.handler;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import jakarta.websocket.Session;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.web.socket.PingMessage;
+import org.springframework.web.socket.WebSocketMessage;
+import org.springframework.web.socket.WebSocketSession;
+import org.springframework.web.socket.adapter.NativeWebSocketSession;
+import org.springframework.web.socket.handler.WebSocketSessionDecorator;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates the per-session {@link OutboundQueue}s and owns what they share:
+ * the limits, the overflow policy, the drainer threads and the metrics.
+ * <p>
+ * A drainer blocks while its socket accepts the frame, so every session gets a send
+ * time limit ({@code send-time-limit-ms}, Tomcat's blocking send timeout). A socket that
+ * stops reading fails its send after that long and is closed, instead of holding one
+ * of the {@code drain-threads} for good and stalling every other session behind it.
+ */
+@Component
+public class OutboundQueueManager {
+
+    private static final String BLOCKING_SEND_TIMEOUT = "org.apache.tomcat.websocket.BLOCKING_SEND_TIMEOUT";
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final OutboundQueue.OverflowPolicy overflowPolicy;
+    private final ExecutorService executor;
+    private final long sendTimeLimitMillis;
+
+    private final CompressionStats compressionStats;
+
+    private final AtomicLong depth = new AtomicLong();
+    private final Counter overflows;
+    private final Counter drops;
+    private final Counter sendFailures;
+
+    public OutboundQueueManager(MeterRegistry meterRegistry,
+                                @Value("${chat.outbound.max-messages:1000}") int maxMessages,
+                                @Value("${chat.outbound.max-bytes:1048576}") long maxBytes,
+                                @Value("${chat.outbound.overflow-policy:SPILL_OFFLINE}") OutboundQueue.OverflowPolicy overflowPolicy,
+                                @Value("${chat.outbound.drain-threads:8}") int drainThreads,
+                                @Value("${chat.outbound.send-time-limit-ms:5000}") long sendTimeLimitMillis,
+                                @Value("${spring.threads.virtual.enabled:false}") boolean virtualThreads,
+                                @Value("${chat.compression.metrics-sample-rate:0.01}") double compressionSampleRate) {
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.overflowPolicy = overflowPolicy;
+        this.sendTimeLimitMillis = sendTimeLimitMillis;
+        // A drain blocks while the socket is slow to accept the frame: cheap on a virtual thread
+        this.executor = virtualThreads
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("chat-drain-", 0).factory())
+                : Executors.newFixedThreadPool(drainThreads);
+        this.compressionStats = new CompressionStats(meterRegistry, compressionSampleRate);
+
+        this.overflows = Counter.builder("chat.outbound.overflows")
+                .tag("policy", overflowPolicy.name())
+                .register(meterRegistry);
+        this.drops = meterRegistry.counter("chat.outbound.dropped");
+        this.sendFailures = meterRegistry.counter("chat.outbound.send-failures");
+        meterRegistry.gauge("chat.outbound.depth", depth);
+    }
+
+    /**
+     * Attaches a new queue to the session and returns it.
+     */
+    public OutboundQueue open(WebSocketSession session, OutboundQueue.SpillHandler spillHandler) {
+        limitSendTime(session);
+        OutboundQueue queue = new OutboundQueue(session, this, spillHandler);
+        session.getAttributes().put(OutboundQueue.ATTRIBUTE, queue);
+        return queue;
+    }
+
+    /**
+     * Total number of frames waiting in all session queues.
+     */
+    public long depth() {
+        return depth.get();
+    }
+
+    private void limitSendTime(WebSocketSession session) {
+        if (WebSocketSessionDecorator.unwrap(session) instanceof NativeWebSocketSession nativeSession) {
+            Session standard = nativeSession.getNativeSession(Session.class);
+            if (standard != null) {
+                standard.getUserProperties().put(BLOCKING_SEND_TIMEOUT, sendTimeLimitMillis);
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    int maxMessages() {
+        return maxMessages;
+    }
+
+    long maxBytes() {
+        return maxBytes;
+    }
+
+    OutboundQueue.OverflowPolicy overflowPolicy() {
+        return overflowPolicy;
+    }
+
+    ExecutorService executor() {
+        return executor;
+    }
+
+    void depthChanged(int delta) {
+        depth.addAndGet(delta);
+    }
+
+    void sent(WebSocketSession session, WebSocketMessage<?> message) {
+        if (message instanceof PingMessage) {
+            Heartbeat heartbeat = Heartbeat.of(session);
+            if (heartbeat != null) {
+                heartbeat.pingWritten();
+            }
+            return;
+        }
+        compressionStats.sent(session, message);
+    }
+
+    void sendFailed() {
+        sendFailures.increment();
+    }
+
+    void overflowed() {
+        overflows.increment();
+    }
+
+    void dropped() {
+        drops.increment();
+    }
+}
@@ -0,0 +1,139 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.cluster.SessionDirectory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells users when the people they talk to come online or go offline.
+ * <p>
+ * A user is online while they have a session on this node or, per the
+ * {@link SessionDirectory}, on another one; nothing is read from the database. Connects
+ * and disconnects, here or in the directory (including users dropped with a node that went
+ * down), only mark the user as changed. Changes are published once per
+ * coalescing interval, and only if the state differs from the last one published, so a
+ * connection that flaps within the interval sends one update or none.
+ * <p>
+ * Updates go to the text sessions that hold a conversation handle for the user
+ * ({@link Conversations}): a session subscribes when it resolves a target, and
+ * unsubscribes when the handle is evicted or the session closes. A new subscriber gets
+ * the current state once. Presence frames are ephemeral: a full queue drops them.
+ */
+public class PresenceService implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(PresenceService.class);
+
+    private final SessionRegistry sessions;
+    private final SessionDirectory directory;
+
+    /** Watched username → sessions subscribed to it. */
+    private final Map<String, Set<WebSocketSession>> watchers = new ConcurrentHashMap<>();
+    /** Users changed since the last flush. */
+    private final Set<String> changed = ConcurrentHashMap.newKeySet();
+    /** Users whose last published state is online. */
+    private final Set<String> publishedOnline = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService timer;
+
+    public PresenceService(SessionRegistry sessions, SessionDirectory directory, long coalesceMillis) {
+        this.sessions = sessions;
+        this.directory = directory;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-presence");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleWithFixedDelay(this::flush, coalesceMillis, coalesceMillis, TimeUnit.MILLISECONDS);
+        directory.subscribe(this::changed);
+    }
+
+    public boolean isOnline(String username) {
+        return sessions.devices(username) > 0 || !directory.remoteNodes(username).isEmpty();
+    }
+
+    /**
+     * A session of the user connected or disconnected.
+     */
+    public void changed(String username) {
+        changed.add(username);
+    }
+
+    /**
+     * Subscribes the session to the target's presence and sends it the current state.
+     */
+    public void subscribe(WebSocketSession session, String target) {
+        // Add inside compute, so a concurrent unsubscribe cannot drop the set the session went into
+        boolean[] added = {false};
+        watchers.compute(target, (k, subscribed) -> {
+            Set<WebSocketSession> current = subscribed != null ? subscribed : ConcurrentHashMap.newKeySet();
+            added[0] = current.add(session);
+            return current;
+        });
+        if (added[0]) {
+            send(session, ChatFrames.presence(target, isOnline(target)));
+        }
+    }
+
+    public void unsubscribe(WebSocketSession session, String target) {
+        watchers.computeIfPresent(target, (k, subscribed) -> {
+            subscribed.remove(session);
+            return subscribed.isEmpty() ? null : subscribed;
+        });
+    }
+
+    /**
+     * Number of users somebody is subscribed to.
+     */
+    public int watchedUsers() {
+        return watchers.size();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdown();
+    }
+
+    private void flush() {
+        try {
+            for (Iterator<String> it = changed.iterator(); it.hasNext(); ) {
+                String username = it.next();
+                it.remove();
+                boolean online = isOnline(username);
+                boolean updated = online ? publishedOnline.add(username) : publishedOnline.remove(username);
+                if (updated) {
+                    publish(username, online);
+                }
+            }
+        } catch (RuntimeException ex) {
+            log.warn("Presence flush failed", ex);
+        }
+    }
+
+    private void publish(String username, boolean online) {
+        Set<WebSocketSession> subscribed = watchers.get(username);
+        if (subscribed == null) {
+            return;
+        }
+        // One frame for every subscriber
+        TextMessage frame = ChatFrames.presence(username, online);
+        for (WebSocketSession session : subscribed) {
+            send(session, frame);
+        }
+    }
+
+    private static void send(WebSocketSession session, TextMessage frame) {
+        OutboundQueue queue = session.isOpen() ? OutboundQueue.of(session) : null;
+        if (queue != null) {
+            queue.offer(frame, null);
+        }
+    }
+}
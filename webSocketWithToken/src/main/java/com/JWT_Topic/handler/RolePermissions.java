@@ -0,0 +1,46 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.entity.Role;
+
+/**
+ * Who may write to whom, as a {@link Role} × {@link Role} table built once at class load,
+ * so a permission check is two array lookups. Customers may not message each other.
+ */
+public final class RolePermissions {
+
+    private static final boolean[][] ALLOWED = table();
+
+    private RolePermissions() {
+    }
+
+    public static boolean allowed(Role sender, Role target) {
+        return sender != null && target != null && ALLOWED[sender.ordinal()][target.ordinal()];
+    }
+
+    /**
+     * Parses a role name as stored in tokens and in the database, ignoring case;
+     * {@code null} for anything else, including {@code RoleDirectory.UNKNOWN}.
+     */
+    public static Role parse(String role) {
+        if (role == null) {
+            return null;
+        }
+        for (Role candidate : Role.values()) {
+            if (candidate.name().equalsIgnoreCase(role)) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static boolean[][] table() {
+        Role[] roles = Role.values();
+        boolean[][] allowed = new boolean[roles.length][roles.length];
+        for (Role sender : roles) {
+            for (Role target : roles) {
+                allowed[sender.ordinal()][target.ordinal()] = !(sender == Role.USER && target == Role.USER);
+            }
+        }
+        return allowed;
+    }
+}
@@ -0,0 +1,115 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.service.Envelope;
+import com.JWT_Topic.service.MessageIds;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sends room messages to every member.
+ * <p>
+ * A message is encoded once per protocol: every online text member is queued the same
+ * {@link TextMessage} instance and every binary member a view of the same byte buffer,
+ * so the per-device cost is one queue offer. Large rooms are split into batches that
+ * are queued in parallel. Members with no device on this node go through
+ * {@link UserDelivery}: their devices on other nodes get the binary frame or the message
+ * as a plain chat line, and if none takes it the line goes to the offline store, as it
+ * does for a frame that cannot be sent.
+ * <p>
+ * Membership itself is node-local ({@link RoomRegistry}): a room reaches the members
+ * who joined it on this node, wherever they are connected now.
+ */
+public class RoomFanout implements AutoCloseable {
+
+    private final RoomRegistry rooms;
+    private final SessionRegistry sessions;
+    private final OfflineDelivery offline;
+    private final UserDelivery userDelivery;
+    private final MessageIds messageIds;
+    private final int batchSize;
+    private final ExecutorService executor;
+
+    public RoomFanout(RoomRegistry rooms, SessionRegistry sessions, OfflineDelivery offline, UserDelivery userDelivery,
+                      MessageIds messageIds, int batchSize, int threads) {
+        this.rooms = rooms;
+        this.sessions = sessions;
+        this.offline = offline;
+        this.userDelivery = userDelivery;
+        this.messageIds = messageIds;
+        this.batchSize = batchSize;
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "chat-room-fanout");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Queues the message for every member except the sender and returns how many members it was sent to.
+     */
+    public int send(String room, ChatPrincipal sender, String body) {
+        List<String> members = new ArrayList<>(rooms.members(room));
+        members.remove(sender.username());
+        if (members.isEmpty()) {
+            return 0;
+        }
+
+        long id = messageIds.next();
+        TextMessage text = ChatFrames.room(room, sender.username(), id, body);
+        long senderId = sender.userId() != null ? sender.userId() : 0L;
+        ByteBuffer binary = BinaryFrameCodec.encode((short) (BinaryFrameCodec.FLAG_TEXT | BinaryFrameCodec.FLAG_ROOM),
+                senderId, 0L, 0L, text.getPayload());
+        Frames frames = new Frames(text, binary, new Envelope(id, "#" + room + " [" + sender.username() + "] → " + body));
+
+        if (members.size() <= batchSize) {
+            deliver(members, frames);
+        } else {
+            for (int from = 0; from < members.size(); from += batchSize) {
+                List<String> batch = members.subList(from, Math.min(from + batchSize, members.size()));
+                executor.execute(() -> deliver(batch, frames));
+            }
+        }
+        return members.size();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    private void deliver(List<String> members, Frames frames) {
+        for (String member : members) {
+            boolean online = false;
+            for (WebSocketSession session : sessions.sessions(member)) {
+                OutboundQueue queue = session.isOpen() ? OutboundQueue.of(session) : null;
+                if (queue == null) {
+                    continue;
+                }
+                online = true;
+                if (BinaryChatHandler.isBinary(session)) {
+                    // Each send consumes the buffer's position, so every device gets its own view of the bytes.
+                    queue.offer(new BinaryMessage(frames.binary.duplicate()), frames.spill);
+                } else {
+                    queue.offer(frames.text, frames.spill);
+                }
+            }
+            // Devices on other nodes, and the offline store if nobody took it
+            if (!userDelivery.deliverRemotely(member, frames.line.id(), frames.line.line(), frames.binary, online)) {
+                offline.lost(1);
+            }
+        }
+    }
+
+    private record Frames(TextMessage text, ByteBuffer binary, Envelope line, List<Envelope> spill) {
+        Frames(TextMessage text, ByteBuffer binary, Envelope line) {
+            this(text, binary, line, List.of(line));
+        }
+    }
+}
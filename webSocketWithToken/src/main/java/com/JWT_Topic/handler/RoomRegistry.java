@@ -0,0 +1,77 @@
+package com.JWT_Topic.handler;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Room membership, indexed both ways: room → members for fan-out and
+ * user → rooms so a user's memberships are found without scanning every room.
+ * Membership belongs to the user, not the session; it survives reconnects and
+ * members who are offline receive room messages through the offline store.
+ * Each node keeps its own registry; joins are not shared over the cluster.
+ */
+public class RoomRegistry {
+
+    private final Map<String, Set<String>> membersByRoom = new ConcurrentHashMap<>();
+    private final Map<String, Set<String>> roomsByUser = new ConcurrentHashMap<>();
+    private final int maxMembers;
+
+    public RoomRegistry(int maxMembers) {
+        this.maxMembers = maxMembers;
+    }
+
+    /**
+     * Adds the user to the room, creating the room on first join;
+     * {@code false} if the room is full.
+     */
+    public boolean join(String room, String username) {
+        boolean[] joined = {false};
+        membersByRoom.compute(room, (k, members) -> {
+            Set<String> current = members != null ? members : ConcurrentHashMap.newKeySet();
+            if (current.contains(username) || current.size() < maxMembers) {
+                current.add(username);
+                joined[0] = true;
+            }
+            return current;
+        });
+        if (joined[0]) {
+            roomsByUser.computeIfAbsent(username, k -> ConcurrentHashMap.newKeySet()).add(room);
+        }
+        return joined[0];
+    }
+
+    /**
+     * Removes the user from the room; the room disappears with its last member.
+     */
+    public void leave(String room, String username) {
+        membersByRoom.computeIfPresent(room, (k, members) -> {
+            members.remove(username);
+            return members.isEmpty() ? null : members;
+        });
+        roomsByUser.computeIfPresent(username, (k, rooms) -> {
+            rooms.remove(room);
+            return rooms.isEmpty() ? null : rooms;
+        });
+    }
+
+    public boolean isMember(String room, String username) {
+        Set<String> members = membersByRoom.get(room);
+        return members != null && members.contains(username);
+    }
+
+    /**
+     * Live view of the members; iteration is weakly consistent with concurrent joins.
+     */
+    public Set<String> members(String room) {
+        return membersByRoom.getOrDefault(room, Set.of());
+    }
+
+    public Set<String> roomsOf(String username) {
+        return roomsByUser.getOrDefault(username, Set.of());
+    }
+
+    public int size() {
+        return membersByRoom.size();
+    }
+}
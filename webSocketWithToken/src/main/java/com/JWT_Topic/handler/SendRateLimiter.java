@@ -0,0 +1,142 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.entity.Role;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits how fast each user may send, with a budget per {@link Role}.
+ * <p>
+ * Every bucket is a single {@link AtomicLong} holding its theoretical arrival time (the
+ * generic cell rate algorithm): a send is allowed if the bucket's time is at most
+ * {@code burst} intervals ahead of now, and then advances it by one interval with a CAS.
+ * There are no locks and no refill timer. All devices of a user share one bucket.
+ * A bucket whose time has fallen behind now is full again and behaves exactly like a
+ * new one, so a periodic sweep drops those to keep the map to recently active senders.
+ * <p>
+ * On top of the per-user buckets, one node-wide bucket caps the total send rate.
+ * Customers may only use it while a share of it ({@code merchant-reserve}) is left, so
+ * under load merchants keep getting through after customers are throttled.
+ */
+@Component
+public class SendRateLimiter {
+
+    private record Budget(long intervalNanos, long toleranceNanos) {
+        static Budget of(double perSecond, int burst) {
+            long interval = (long) (TimeUnit.SECONDS.toNanos(1) / perSecond);
+            return new Budget(interval, interval * burst);
+        }
+    }
+
+    private final Map<Role, Budget> budgets = new EnumMap<>(Role.class);
+    private final Map<Role, Counter> rejected = new EnumMap<>(Role.class);
+    private final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+
+    private final Budget global;
+    private final long customerGlobalTolerance;
+    private final AtomicLong globalBucket = new AtomicLong(System.nanoTime());
+    private final ScheduledExecutorService sweeper;
+
+    public SendRateLimiter(MeterRegistry meterRegistry,
+                           @Value("${chat.rate-limit.user.per-second:5}") double userPerSecond,
+                           @Value("${chat.rate-limit.user.burst:20}") int userBurst,
+                           @Value("${chat.rate-limit.merchant.per-second:50}") double merchantPerSecond,
+                           @Value("${chat.rate-limit.merchant.burst:200}") int merchantBurst,
+                           @Value("${chat.rate-limit.global.per-second:20000}") double globalPerSecond,
+                           @Value("${chat.rate-limit.global.burst:40000}") int globalBurst,
+                           @Value("${chat.rate-limit.merchant-reserve:0.2}") double merchantReserve,
+                           @Value("${chat.rate-limit.sweep-interval-ms:60000}") long sweepIntervalMillis) {
+        budgets.put(Role.USER, Budget.of(userPerSecond, userBurst));
+        budgets.put(Role.MERCHANT, Budget.of(merchantPerSecond, merchantBurst));
+        this.global = Budget.of(globalPerSecond, globalBurst);
+        this.customerGlobalTolerance = (long) (global.toleranceNanos * (1 - merchantReserve));
+        for (Role role : Role.values()) {
+            rejected.put(role, Counter.builder("chat.ratelimit.rejected")
+                    .tag("role", role.name())
+                    .register(meterRegistry));
+        }
+        meterRegistry.gauge("chat.ratelimit.buckets", buckets, Map::size);
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ratelimit-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Takes one send from the user's budget.
+     *
+     * @return 0 if the send is allowed, otherwise how many milliseconds to wait (at least 1)
+     */
+    public long tryAcquire(String username, Role role) {
+        Budget budget = budgets.get(role);
+        long now = System.nanoTime();
+        AtomicLong bucket = buckets.computeIfAbsent(username, k -> new AtomicLong(now));
+        long wait = acquire(bucket, now, budget.intervalNanos, budget.toleranceNanos);
+        if (wait == 0) {
+            long tolerance = role == Role.MERCHANT ? global.toleranceNanos : customerGlobalTolerance;
+            // The user's token is spent even if the node-wide bucket refuses; it refills within one interval
+            wait = acquire(globalBucket, now, global.intervalNanos, tolerance);
+        }
+        if (wait == 0) {
+            return 0;
+        }
+        rejected.get(role).increment();
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+    }
+
+    /**
+     * Drops the user's bucket once they have no session left, unless it is still
+     * draining: reconnecting must not reset a spent budget.
+     */
+    public void release(String username) {
+        long now = System.nanoTime();
+        buckets.computeIfPresent(username, (k, bucket) -> bucket.get() - now <= 0 ? null : bucket);
+    }
+
+    /**
+     * Drops every full bucket. A send racing with the removal may advance the dropped
+     * bucket instead of its replacement, which costs that user at most one free send.
+     */
+    private void sweep() {
+        long now = System.nanoTime();
+        buckets.values().removeIf(bucket -> bucket.get() - now <= 0);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        sweeper.shutdown();
+    }
+
+    /**
+     * GCRA step: advances {@code bucket} by one interval if that keeps it within
+     * {@code tolerance} of now. Returns 0 on success, otherwise the nanoseconds until it would.
+     */
+    private static long acquire(AtomicLong bucket, long now, long interval, long tolerance) {
+        while (true) {
+            long tat = bucket.get();
+            // nanoTime may wrap, so compare by difference
+            long next = (tat - now > 0 ? tat : now) + interval;
+            long wait = next - now - tolerance;
+            if (wait > 0) {
+                return wait;
+            }
+            if (bucket.compareAndSet(tat, next)) {
+                return 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.cluster.SessionDirectory;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Username → sessions index with a session id → username reverse index, so a
+ * disconnect is removed in constant time regardless of how many users are online.
+ * Also maps the numeric user ids of connected users, for the binary protocol.
+ * <p>
+ * A user may be connected from several devices. Their sessions are kept in a small
+ * copy-on-write array: delivery reads it without locking or copying, while connects
+ * and disconnects, which are far rarer, replace it atomically.
+ * <p>
+ * A user's first connect and last disconnect on this node are reported to the
+ * cluster-wide {@link SessionDirectory}.
+ */
+public class SessionRegistry {
+
+    private static final WebSocketSession[] NONE = new WebSocketSession[0];
+
+    private final Map<String, WebSocketSession[]> byUsername = new ConcurrentHashMap<>();
+    private final Map<String, String> usernameBySessionId = new ConcurrentHashMap<>();
+    private final Map<Long, String> usernameByUserId = new ConcurrentHashMap<>();
+    private final AtomicInteger sessionCount = new AtomicInteger();
+    private final int maxDevices;
+    private final SessionDirectory directory;
+
+    public SessionRegistry(int maxDevices, SessionDirectory directory) {
+        this.maxDevices = maxDevices;
+        this.directory = directory;
+    }
+
+    /**
+     * Adds the session to the user's devices. If that exceeds the device limit the user's
+     * oldest session is dropped from the registry and returned, for the caller to close.
+     */
+    public WebSocketSession register(String username, Long userId, WebSocketSession session) {
+        usernameBySessionId.put(session.getId(), username);
+        WebSocketSession[] evicted = {null};
+        byUsername.compute(username, (k, current) -> {
+            // The id mapping and the directory change under the same per-user lock as the array
+            if (userId != null) {
+                usernameByUserId.put(userId, username);
+            }
+            if (current == null) {
+                directory.online(username);
+            }
+            WebSocketSession[] sessions = current != null ? current : NONE;
+            if (sessions.length >= maxDevices) {
+                evicted[0] = sessions[0];
+                sessions = Arrays.copyOfRange(sessions, 1, sessions.length);
+            }
+            WebSocketSession[] updated = Arrays.copyOf(sessions, sessions.length + 1);
+            updated[sessions.length] = session;
+            return updated;
+        });
+        sessionCount.incrementAndGet();
+        if (evicted[0] != null) {
+            usernameBySessionId.remove(evicted[0].getId());
+            sessionCount.decrementAndGet();
+        }
+        return evicted[0];
+    }
+
+    /**
+     * Removes one session; the user's other devices stay registered.
+     */
+    public void unregister(WebSocketSession session) {
+        String username = usernameBySessionId.remove(session.getId());
+        if (username == null) {
+            return;
+        }
+        boolean[] removed = {false};
+        byUsername.computeIfPresent(username, (k, sessions) -> {
+            for (int i = 0; i < sessions.length; i++) {
+                if (sessions[i] == session) {
+                    removed[0] = true;
+                    if (sessions.length == 1) {
+                        ChatPrincipal principal = ChatPrincipal.of(session);
+                        if (principal != null && principal.userId() != null) {
+                            usernameByUserId.remove(principal.userId(), username);
+                        }
+                        directory.offline(username);
+                        return null;
+                    }
+                    WebSocketSession[] updated = new WebSocketSession[sessions.length - 1];
+                    System.arraycopy(sessions, 0, updated, 0, i);
+                    System.arraycopy(sessions, i + 1, updated, i, sessions.length - i - 1);
+                    return updated;
+                }
+            }
+            return sessions;
+        });
+        if (removed[0]) {
+            sessionCount.decrementAndGet();
+        }
+    }
+
+    /**
+     * The user's sessions, oldest first; empty if the user is offline.
+     * The array is shared and must not be modified.
+     */
+    public WebSocketSession[] sessions(String username) {
+        return byUsername.getOrDefault(username, NONE);
+    }
+
+    /**
+     * Every registered session, for shutdown.
+     */
+    public List<WebSocketSession> allSessions() {
+        List<WebSocketSession> all = new ArrayList<>(sessionCount.get());
+        for (WebSocketSession[] devices : byUsername.values()) {
+            all.addAll(Arrays.asList(devices));
+        }
+        return all;
+    }
+
+    /**
+     * Number of devices the user is connected from.
+     */
+    public int devices(String username) {
+        return sessions(username).length;
+    }
+
+    /**
+     * Username of a connected user, or {@code null} if nobody with that id is online.
+     */
+    public String usernameOf(long userId) {
+        return usernameByUserId.get(userId);
+    }
+
+    /**
+     * Number of users online.
+     */
+    public int size() {
+        return byUsername.size();
+    }
+
+    /**
+     * Number of sessions over all users and devices.
+     */
+    public int sessionCount() {
+        return sessionCount.get();
+    }
+}
@@ -0,0 +1,123 @@
+package com.JWT_Topic.handler;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hashed timing wheel: one thread runs every timeout, however many are scheduled.
+ * <p>
+ * Time is cut into ticks, and a timeout lands in bucket {@code tick % wheelSize}; the
+ * thread only looks at one bucket per tick, so scheduling and expiring are O(1) and
+ * timeouts further away than one turn simply wait for the right round. Timeouts fire
+ * up to one tick late. New timeouts go through a lock-free queue and only the wheel
+ * thread touches the buckets. Tasks run on the wheel thread and must not block.
+ */
+public class TimingWheel implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(TimingWheel.class);
+
+    public static final class Timeout {
+
+        private final Runnable task;
+        private final long deadlineNanos;
+        private long tick;
+        private volatile boolean cancelled;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+    }
+
+    private final long tickNanos;
+    private final int mask;
+    private final ArrayDeque<Timeout>[] buckets;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private final Thread worker;
+    private volatile boolean closed;
+    private long tick;
+
+    /**
+     * @param wheelSize buckets per turn, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(String name, long tickMillis, int wheelSize) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.mask = size - 1;
+        this.buckets = (ArrayDeque<Timeout>[]) new ArrayDeque<?>[size];
+        for (int i = 0; i < size; i++) {
+            buckets[i] = new ArrayDeque<>();
+        }
+        this.worker = new Thread(this::run, name);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        pending.add(timeout);
+        return timeout;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        worker.interrupt();
+    }
+
+    private void run() {
+        while (!closed) {
+            long sleep = (tick + 1) * tickNanos - (System.nanoTime() - startNanos);
+            if (sleep > 0) {
+                LockSupport.parkNanos(sleep);
+                continue;
+            }
+            transferPending();
+            expire(buckets[(int) (tick & mask)]);
+            tick++;
+        }
+    }
+
+    private void transferPending() {
+        Timeout timeout;
+        while ((timeout = pending.poll()) != null) {
+            if (timeout.cancelled) {
+                continue;
+            }
+            // Already overdue timeouts go into the bucket about to be expired
+            timeout.tick = Math.max(timeout.deadlineNanos / tickNanos, tick);
+            buckets[(int) (timeout.tick & mask)].add(timeout);
+        }
+    }
+
+    private void expire(ArrayDeque<Timeout> bucket) {
+        for (int n = bucket.size(); n > 0; n--) {
+            Timeout timeout = bucket.poll();
+            if (timeout.cancelled) {
+                continue;
+            }
+            if (timeout.tick > tick) {
+                // due in a later round
+                bucket.add(timeout);
+                continue;
+            }
+            try {
+                timeout.task.run();
+            } catch (RuntimeException ex) {
+                log.warn("Timer task failed", ex);
+            }
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.cluster.ClusterBus;
+import com.JWT_Topic.cluster.ClusterMessage;
+import com.JWT_Topic.cluster.SessionDirectory;
+import com.JWT_Topic.service.Envelope;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.socket.BinaryMessage;
+import org.springframework.web.socket.TextMessage;
+import org.springframework.web.socket.WebSocketSession;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Delivers a direct message to every open session of a user, whichever endpoint each
+ * device is connected to, and falls back to the offline store when none of them takes it.
+ * <p>
+ * Devices on this node are served directly. When the {@link SessionDirectory} knows the
+ * user on other nodes, the message is also forwarded over the {@link ClusterBus}; the
+ * receiving node delivers it to its own devices or stores it, and then acknowledges it
+ * ({@code ACK}). A queued forward is not a delivery: if no device here took the message,
+ * it is stored by this node once every node it went to has gone down or the ack timeout
+ * passed without an ack. A late ack only means the message is stored twice under the
+ * same id, which the store ignores.
+ * <p>
+ * The offline store is per user: a message that waits there goes to whichever device
+ * pulls the backlog first. When some device takes a message, a text device that had no
+ * room holds its own copy ({@link DeliveryWindow#hold}); if it cannot, the message is
+ * stored as well, and a device that already has it recognizes it by its id. A device that
+ * was offline still misses messages its other devices received.
+ * <p>
+ * Signals ({@link #signal}) take the same route but are best effort: no ids, no acks,
+ * no offline store, and a device that still has frames queued does not get them.
+ * <p>
+ * A shared offline store may commit a message after its recipient drained on another
+ * node. The store reports such commits; the node broadcasts them ({@code STORED}) and
+ * every node marks the backlog of the recipients' windows, which the redelivery timer drains.
+ */
+public class UserDelivery implements ClusterBus.Listener, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(UserDelivery.class);
+
+    private final SessionRegistry sessions;
+    private final OfflineDelivery offline;
+    private final SessionDirectory directory;
+    private final ClusterBus bus;
+    private final long ackTimeoutNanos;
+
+    /** Forwarded messages no device here took, by message id, until a node acknowledges them. */
+    private final Map<Long, Forwarded> unacked = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService timer;
+
+    public UserDelivery(SessionRegistry sessions, OfflineDelivery offline, SessionDirectory directory, ClusterBus bus,
+                        long ackTimeoutMillis) {
+        this.sessions = sessions;
+        this.offline = offline;
+        this.directory = directory;
+        this.bus = bus;
+        this.ackTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(ackTimeoutMillis);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-forward-acks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long interval = Math.max(1, ackTimeoutMillis / 4);
+        timer.scheduleWithFixedDelay(this::expireForwards, interval, interval, TimeUnit.MILLISECONDS);
+        bus.subscribe(this);
+        offline.subscribe(this::stored);
+    }
+
+    /**
+     * @param id     the message id, the same for every device and every attempt
+     * @param line   the message for text sessions and the offline store, or {@code null}
+     *               if it has no text form
+     * @param binary the encoded frame for binary sessions, or {@code null}; it is shared,
+     *               each session gets its own view of the bytes
+     * @return {@code false} if no session took the message and it could not be stored
+     */
+    public boolean deliver(String username, long id, String line, ByteBuffer binary) {
+        Envelope message = line != null ? new Envelope(id, line) : null;
+        return deliverRemotely(username, id, line, binary, deliverLocally(username, message, binary));
+    }
+
+    /**
+     * The rest of {@link #deliver} for a caller that served the devices on this node itself,
+     * like the room fan-out with its shared frames: forwards the message to the user's other
+     * nodes, and stores it if no device here took it and no node acknowledges it.
+     *
+     * @param accepted whether a device on this node took the message
+     * @return {@code false} if no session took the message and it could not be stored
+     */
+    public boolean deliverRemotely(String username, long id, String line, ByteBuffer binary, boolean accepted) {
+        Envelope message = line != null ? new Envelope(id, line) : null;
+        Set<String> nodes = directory.remoteNodes(username);
+        if (nodes.isEmpty()) {
+            return accepted || store(username, message);
+        }
+        // Registered before sending, an ack may come back before send() returns
+        Forwarded forwarded = accepted ? null
+                : new Forwarded(username, message, ConcurrentHashMap.newKeySet(), System.nanoTime() + ackTimeoutNanos);
+        if (forwarded != null) {
+            forwarded.awaiting.addAll(nodes);
+            unacked.put(id, forwarded);
+        }
+        for (String node : nodes) {
+            if (!bus.send(node, ClusterMessage.deliver(username, id, line, bytes(binary))) && forwarded != null) {
+                forwarded.awaiting.remove(node);
+            }
+        }
+        if (forwarded == null || !forwarded.awaiting.isEmpty()) {
+            return true;
+        }
+        // No node took the forward: store it now, unless a peer going down already did
+        return !unacked.remove(id, forwarded) || store(username, message);
+    }
+
+    /**
+     * Sends an ephemeral frame to the user's idle text sessions, here and on other nodes.
+     */
+    public void signal(String username, TextMessage frame) {
+        signalLocally(username, frame);
+        for (String node : directory.remoteNodes(username)) {
+            bus.send(node, ClusterMessage.signal(username, frame.getPayload()));
+        }
+    }
+
+    /**
+     * A message or signal forwarded by another node for a user connected here.
+     */
+    @Override
+    public void onMessage(String node, ClusterMessage message) {
+        if (message.type() == ClusterMessage.Type.SIGNAL) {
+            signalLocally(message.username(), new TextMessage(message.line()));
+            return;
+        }
+        if (message.type() == ClusterMessage.Type.STORED) {
+            message.usernames().forEach(this::markBacklog);
+            return;
+        }
+        if (message.type() == ClusterMessage.Type.ACK) {
+            unacked.remove(message.id());
+            return;
+        }
+        if (message.type() != ClusterMessage.Type.DELIVER) {
+            return;
+        }
+        ByteBuffer binary = message.frame() != null ? ByteBuffer.wrap(message.frame()) : null;
+        Envelope envelope = message.line() != null ? new Envelope(message.id(), message.line()) : null;
+        // Without an ack the sending node stores the message, or counts it as lost
+        if (deliverLocally(message.username(), envelope, binary) || store(message.username(), envelope)) {
+            bus.send(node, ClusterMessage.ack(message.username(), message.id()));
+        }
+    }
+
+    /**
+     * Forwards waiting only for this node will not be acknowledged any more.
+     */
+    @Override
+    public void onPeerDown(String node) {
+        unacked.forEach((id, forwarded) -> {
+            forwarded.awaiting.remove(node);
+            if (forwarded.awaiting.isEmpty()) {
+                unacknowledged(id, forwarded);
+            }
+        });
+    }
+
+    /**
+     * Forwarded messages still waiting for an ack.
+     */
+    int awaitingAck() {
+        return unacked.size();
+    }
+
+    @Override
+    public void close() {
+        timer.shutdown();
+        unacked.forEach(this::unacknowledged);
+    }
+
+    private boolean deliverLocally(String username, Envelope message, ByteBuffer binary) {
+        WebSocketSession[] devices = sessions.sessions(username);
+        List<Envelope> spill = message != null ? List.of(message) : null;
+        boolean accepted = false;
+        List<DeliveryWindow> missed = null;
+        for (WebSocketSession session : devices) {
+            if (!session.isOpen()) {
+                continue;
+            }
+            if (BinaryChatHandler.isBinary(session)) {
+                if (binary == null && message != null) {
+                    // Forwarded from a text sender on another node: carry the line, like offline batches do
+                    binary = BinaryFrameCodec.encodeText(0L, ChatPrincipal.of(session).userId(), 0L, message.line());
+                }
+                if (binary != null) {
+                    // A refused frame has already been spilled into the offline store
+                    boolean queued = OutboundQueue.of(session).offer(new BinaryMessage(binary.duplicate()), spill);
+                    accepted |= queued || spill != null;
+                }
+            } else if (message != null) {
+                DeliveryWindow window = DeliveryWindow.of(session);
+                if (window.offer(message)) {
+                    accepted = true;
+                } else {
+                    if (missed == null) {
+                        missed = new ArrayList<>(devices.length);
+                    }
+                    missed.add(window);
+                }
+            }
+        }
+        if (accepted && missed != null) {
+            keepFor(username, missed, message);
+        }
+        return accepted;
+    }
+
+    /**
+     * Another device took the message: the devices that had no room must still get it.
+     */
+    private void keepFor(String username, List<DeliveryWindow> missed, Envelope message) {
+        boolean held = true;
+        for (DeliveryWindow window : missed) {
+            held &= window.hold(message);
+        }
+        if (!held && !store(username, message)) {
+            offline.lost(1);
+        }
+    }
+
+    private void expireForwards() {
+        try {
+            long now = System.nanoTime();
+            unacked.forEach((id, forwarded) -> {
+                if (now - forwarded.deadline >= 0) {
+                    unacknowledged(id, forwarded);
+                }
+            });
+        } catch (RuntimeException ex) {
+            log.warn("Expiring forwarded messages failed", ex);
+        }
+    }
+
+    /**
+     * Stores a forwarded message nobody acknowledged; only the caller that removes it does.
+     */
+    private void unacknowledged(long id, Forwarded forwarded) {
+        if (!unacked.remove(id, forwarded)) {
+            return;
+        }
+        if (!store(forwarded.username, forwarded.message)) {
+            offline.lost(1);
+            log.warn("Forwarded message {} for {} was not acknowledged and could not be stored", id, forwarded.username);
+        }
+    }
+
+    private void signalLocally(String username, TextMessage frame) {
+        for (WebSocketSession session : sessions.sessions(username)) {
+            if (!session.isOpen() || BinaryChatHandler.isBinary(session)) {
+                continue;
+            }
+            // A signal never waits behind real messages: by the time they drain it is stale
+            OutboundQueue queue = OutboundQueue.of(session);
+            if (queue != null && queue.isEmpty()) {
+                queue.offer(frame, null);
+            }
+        }
+    }
+
+    private boolean store(String username, Envelope message) {
+        if (message == null || !offline.store(username, message)) {
+            return false;
+        }
+        markBacklog(username);
+        return true;
+    }
+
+    /**
+     * The store committed messages for these recipients; runs on the store's writer thread.
+     */
+    private void stored(Set<String> recipients) {
+        recipients.forEach(this::markBacklog);
+        bus.broadcast(ClusterMessage.stored(recipients));
+    }
+
+    private void markBacklog(String username) {
+        for (WebSocketSession session : sessions.sessions(username)) {
+            DeliveryWindow window = DeliveryWindow.of(session);
+            if (window != null) {
+                window.markBacklog();
+            }
+        }
+    }
+
+    private record Forwarded(String username, Envelope message, Set<String> awaiting, long deadline) {
+    }
+
+    private static byte[] bytes(ByteBuffer binary) {
+        if (binary == null) {
+            return null;
+        }
+        ByteBuffer view = binary.duplicate();
+        byte[] bytes = new byte[view.remaining()];
+        view.get(bytes);
+        return bytes;
+    }
+}
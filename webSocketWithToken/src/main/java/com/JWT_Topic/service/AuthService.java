@@ -27,6 +27,9 @@ public class AuthService {
     @Autowired
     private EncryptionService encryptionService;
 
+    @Autowired
+    private PlatformThreadOffload platformThreads;
+
     private final Random random = new Random();
 
     public AuthService(UserRepo repo) {
@@ -43,7 +46,8 @@ public class AuthService {
         message.setTo(email);
         message.setSubject(subject);
         message.setText(text);
-        mailSender.send(message);
+        // SMTP I/O runs under JavaMail's monitors and would pin a virtual thread
+        platformThreads.run(() -> mailSender.send(message));
     }
 
     public void generateAndSendOtp(String email) {
@@ -0,0 +1,229 @@
+package com.JWT_Topic.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Puts per-recipient and global message/byte quotas and a TTL in front of another store.
+ * <p>
+ * Usage is read from the store at startup and again after every TTL sweep, so the
+ * quotas cover what every node sharing the store appended. Between two sweeps the
+ * counters follow what passes through this node: appends made on other nodes in the
+ * meantime are only counted from the next sweep on. A message is charged against the
+ * quotas only if the store reports it {@link Outcome#STORED}; a second copy of a message
+ * already waiting, or an append that failed, gives its reservation back.
+ */
+public class BoundedOfflineMessageStore implements OfflineMessageStore, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(BoundedOfflineMessageStore.class);
+
+    private final OfflineMessageStore delegate;
+    private final int maxMessagesPerRecipient;
+    private final long maxBytesPerRecipient;
+    private final long maxMessages;
+    private final long maxBytes;
+    private final long ttlMillis;
+
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+    private final AtomicLong totalMessages = new AtomicLong();
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final ScheduledExecutorService sweeper;
+
+    private final Counter rejected;
+    private final Counter expired;
+
+    public BoundedOfflineMessageStore(OfflineMessageStore delegate, MeterRegistry meterRegistry,
+                                      int maxMessagesPerRecipient, long maxBytesPerRecipient,
+                                      long maxMessages, long maxBytes,
+                                      long ttlMillis, long sweepIntervalMillis) {
+        this.delegate = delegate;
+        this.maxMessagesPerRecipient = maxMessagesPerRecipient;
+        this.maxBytesPerRecipient = maxBytesPerRecipient;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+
+        this.rejected = meterRegistry.counter("chat.offline.rejected");
+        this.expired = meterRegistry.counter("chat.offline.expired");
+        meterRegistry.gauge("chat.offline.messages", totalMessages);
+        meterRegistry.gauge("chat.offline.bytes", totalBytes);
+
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "offline-ttl-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refreshUsage();
+        sweeper.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Outcome append(String recipient, Envelope message) {
+        long bytes = bytes(message);
+
+        if (!reserveGlobal(bytes)) {
+            rejected.increment();
+            return Outcome.REFUSED;
+        }
+        boolean[] reserved = {false};
+        usage.compute(recipient, (k, u) -> {
+            Usage current = u != null ? u : new Usage(0, 0);
+            if (current.messages + 1 > maxMessagesPerRecipient || current.bytes + bytes > maxBytesPerRecipient) {
+                return u;
+            }
+            reserved[0] = true;
+            return new Usage(current.messages + 1, current.bytes + bytes);
+        });
+        if (!reserved[0]) {
+            release(null, 1, bytes);
+            rejected.increment();
+            return Outcome.REFUSED;
+        }
+        return settle(recipient, bytes, () -> delegate.append(recipient, message));
+    }
+
+    @Override
+    public Outcome putBack(String recipient, Envelope message) {
+        long bytes = bytes(message);
+        totalMessages.incrementAndGet();
+        totalBytes.addAndGet(bytes);
+        usage.merge(recipient, new Usage(1, bytes), (u, added) -> new Usage(u.messages + 1, u.bytes + bytes));
+        return settle(recipient, bytes, () -> delegate.putBack(recipient, message));
+    }
+
+    @Override
+    public List<Envelope> poll(String recipient, int max) {
+        List<Envelope> messages = delegate.poll(recipient, max);
+        if (!messages.isEmpty()) {
+            long bytes = 0;
+            for (Envelope message : messages) {
+                bytes += bytes(message);
+            }
+            release(recipient, messages.size(), bytes);
+        }
+        return messages;
+    }
+
+    @Override
+    public void expire(long cutoffMillis, EvictionListener listener) {
+        delegate.expire(cutoffMillis, (recipient, messages, bytes) -> {
+            release(recipient, messages, bytes);
+            expired.increment(messages);
+            listener.evicted(recipient, messages, bytes);
+        });
+    }
+
+    @Override
+    public void usage(UsageListener listener) {
+        delegate.usage(listener);
+    }
+
+    @Override
+    public void subscribe(StoredListener listener) {
+        delegate.subscribe(listener);
+    }
+
+    @Override
+    public void close() {
+        sweeper.shutdown();
+    }
+
+    private void sweep() {
+        try {
+            expire(System.currentTimeMillis() - ttlMillis, (recipient, messages, bytes) -> { });
+        } catch (RuntimeException ex) {
+            log.warn("Offline message expiry failed", ex);
+        }
+        refreshUsage();
+    }
+
+    /**
+     * Replaces the counters with what the store holds. An append or poll on this node
+     * while the store is read may be counted twice or not at all until the next refresh.
+     */
+    private void refreshUsage() {
+        Map<String, Usage> stored = new HashMap<>();
+        long[] totals = new long[2];
+        try {
+            delegate.usage((recipient, messages, bytes) -> {
+                stored.put(recipient, new Usage(messages, bytes));
+                totals[0] += messages;
+                totals[1] += bytes;
+            });
+        } catch (RuntimeException ex) {
+            log.warn("Reading offline message usage failed, keeping the counters of this node", ex);
+            return;
+        }
+        usage.keySet().retainAll(stored.keySet());
+        usage.putAll(stored);
+        totalMessages.set(totals[0]);
+        totalBytes.set(totals[1]);
+    }
+
+    /**
+     * Runs the delegate's write for a message already reserved against the quotas, and
+     * gives the reservation back unless the write actually added it.
+     */
+    private Outcome settle(String recipient, long bytes, Supplier<Outcome> write) {
+        Outcome outcome;
+        try {
+            outcome = write.get();
+        } catch (RuntimeException ex) {
+            release(recipient, 1, bytes);
+            throw ex;
+        }
+        if (outcome != Outcome.STORED) {
+            release(recipient, 1, bytes);
+        }
+        return outcome;
+    }
+
+    private boolean reserveGlobal(long bytes) {
+        while (true) {
+            long messages = totalMessages.get();
+            if (messages + 1 > maxMessages) {
+                return false;
+            }
+            if (totalMessages.compareAndSet(messages, messages + 1)) {
+                break;
+            }
+        }
+        if (totalBytes.addAndGet(bytes) > maxBytes) {
+            totalMessages.decrementAndGet();
+            totalBytes.addAndGet(-bytes);
+            return false;
+        }
+        return true;
+    }
+
+    private void release(String recipient, int messages, long bytes) {
+        totalMessages.updateAndGet(v -> Math.max(0, v - messages));
+        totalBytes.updateAndGet(v -> Math.max(0, v - bytes));
+        if (recipient != null) {
+            usage.computeIfPresent(recipient, (k, u) -> {
+                int remaining = u.messages - messages;
+                return remaining <= 0 ? null : new Usage(remaining, Math.max(0, u.bytes - bytes));
+            });
+        }
+    }
+
+    private static long bytes(Envelope message) {
+        return message.line().getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    private record Usage(int messages, long bytes) {
+    }
+}
@@ -0,0 +1,118 @@
+package com.JWT_Topic.service;
+
+import com.JWT_Topic.entity.ChatMessage;
+import com.JWT_Topic.entity.ChatMessageId;
+import com.JWT_Topic.entity.repo.ChatMessageRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps delivered chat messages in the {@code chat_message} table.
+ * <p>
+ * {@link #record} only stamps the message and offers it to a {@link WriteBehindBuffer};
+ * it never waits for the database. The buffer inserts whole batches as one JDBC batch
+ * in one transaction, so a busy node commits many messages per round trip. If the
+ * database falls behind until the buffer is full, history writes are dropped and
+ * counted ({@code chat.history.dropped}) rather than slowing down delivery. Messages
+ * show up in {@link #page} once their batch is written, at most one flush interval later.
+ * <p>
+ * The sequence number of a message is its {@link MessageIds message id}, so a page of
+ * history and a live or redelivered message can be matched by id.
+ */
+public class ChatHistory implements AutoCloseable {
+
+    private static final String INSERT =
+            "INSERT INTO chat_message (conversation_id, seq, sender, body, created_at) VALUES (?, ?, ?, ?, ?)";
+
+    private final ChatMessageRepo repo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int maxPageSize;
+    private final WriteBehindBuffer<ChatMessage> buffer;
+    private final Counter dropped;
+
+    public ChatHistory(ChatMessageRepo repo, JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                       MeterRegistry meterRegistry,
+                       int batchSize, int bufferCapacity, long flushIntervalMillis, int maxPageSize) {
+        this.repo = repo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.maxPageSize = maxPageSize;
+        this.buffer = new WriteBehindBuffer<>("chat-history", batchSize, bufferCapacity, flushIntervalMillis,
+                this::insertBatch);
+        this.dropped = Counter.builder("chat.history.dropped").register(meterRegistry);
+        Gauge.builder("chat.history.buffered", buffer, WriteBehindBuffer::size).register(meterRegistry);
+        FunctionCounter.builder("chat.history.dead-lettered", buffer, WriteBehindBuffer::deadLettered)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Conversation id of the direct conversation between two users; the same whichever
+     * of them asks. The length prefix keeps it unambiguous for any username.
+     */
+    public static String directConversation(String a, String b) {
+        String first = a.toLowerCase(Locale.ROOT);
+        String second = b.toLowerCase(Locale.ROOT);
+        if (first.compareTo(second) > 0) {
+            String swap = first;
+            first = second;
+            second = swap;
+        }
+        return first.length() + ":" + first + "|" + second;
+    }
+
+    /**
+     * Queues a direct message for the history. Returns {@code false} if it was dropped
+     * because the buffer is full.
+     */
+    public boolean record(long id, String sender, String recipient, String body) {
+        ChatMessage message = new ChatMessage();
+        message.setId(new ChatMessageId(directConversation(sender, recipient), id));
+        message.setSender(sender);
+        message.setBody(body);
+        message.setCreatedAt(LocalDateTime.now());
+        if (buffer.offer(message)) {
+            return true;
+        }
+        dropped.increment();
+        return false;
+    }
+
+    /**
+     * Messages of the conversation between {@code username} and {@code with} older than
+     * {@code beforeSeq}, newest first. Pass {@link Long#MAX_VALUE} for the latest page.
+     */
+    public List<ChatMessage> page(String username, String with, long beforeSeq, int limit) {
+        return repo.pageBefore(directConversation(username, with), beforeSeq, limit);
+    }
+
+    public int maxPageSize() {
+        return maxPageSize;
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+
+    private void insertBatch(List<ChatMessage> batch) {
+        // One transaction per batch: the whole batch costs a single commit
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(INSERT, batch, batch.size(), (ps, message) -> {
+                    ps.setString(1, message.getId().getConversationId());
+                    ps.setLong(2, message.getId().getSeq());
+                    ps.setString(3, message.getSender());
+                    ps.setString(4, message.getBody());
+                    ps.setTimestamp(5, Timestamp.valueOf(message.getCreatedAt()));
+                }));
+    }
+}
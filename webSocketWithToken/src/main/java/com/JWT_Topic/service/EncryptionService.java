@@ -5,29 +5,54 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.security.crypto.bcrypt.BCrypt;
 import org.springframework.stereotype.Service;
 
+import java.util.concurrent.Semaphore;
+
+/**
+ * BCrypt hashing. It is pure CPU work, so at most {@code encryption.max-concurrency}
+ * hashes run at once: on virtual threads a login burst would otherwise occupy every
+ * carrier thread and stall chat traffic. There is one carrier per core, so the default
+ * is half the cores, which always leaves carriers free for everything else.
+ */
 @Service
 public class EncryptionService {
 
     @Value("${encryption.salt.rounds}")
     private int saltRounds;
 
+    @Value("${encryption.max-concurrency:0}")
+    private int maxConcurrency;
+
     private String salt;
 
+    private Semaphore permits;
+
 
     @PostConstruct
     public void postConstruct() {
         salt = BCrypt.gensalt(saltRounds);
+        int permitCount = maxConcurrency > 0 ? maxConcurrency : Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        permits = new Semaphore(permitCount, true);
     }
 
 
     public String encryptPassword(String password) {
-        return BCrypt.hashpw(password, salt);
+        permits.acquireUninterruptibly();
+        try {
+            return BCrypt.hashpw(password, salt);
+        } finally {
+            permits.release();
+        }
     }
 
 
 
     public boolean verifyPassword(String password, String hash) {
-        return BCrypt.checkpw(password, hash);
+        permits.acquireUninterruptibly();
+        try {
+            return BCrypt.checkpw(password, hash);
+        } finally {
+            permits.release();
+        }
     }
 
 }
@@ -0,0 +1,8 @@
+package com.JWT_Topic.service;
+
+/**
+ * A chat line together with its {@link MessageIds message id}, which it keeps through
+ * every delivery attempt and every trip through the offline store.
+ */
+public record Envelope(long id, String line) {
+}
@@ -2,16 +2,17 @@ package com.JWT_Topic.service;
 
 //import com.ProjectGraduation.auth.entity.Merchant;
 import com.JWT_Topic.entity.User;
-import com.JWT_Topic.entity.repo.UserRepo;
 import com.auth0.jwt.JWT;
+import com.auth0.jwt.JWTVerifier;
 import com.auth0.jwt.algorithms.Algorithm;
+import com.auth0.jwt.exceptions.JWTVerificationException;
+import com.auth0.jwt.interfaces.DecodedJWT;
 import jakarta.annotation.PostConstruct;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
 import java.util.Date;
-import java.util.Optional;
 
 @Service
 public class JWTService {
@@ -28,11 +29,13 @@ public class JWTService {
 
     private static final String USERNAME_KEY = "USERNAME";
     private Algorithm algorithm ;
+    private JWTVerifier verifier;
 
 
     @PostConstruct
     public void postConstruct (){
         algorithm= Algorithm.HMAC256(algorithmKey) ;
+        verifier = JWT.require(algorithm).withIssuer(issuer).build();
     }
 
 
@@ -41,11 +44,20 @@ public class JWTService {
                 .withClaim(USERNAME_KEY, user.getUsername())
                 .withClaim("ROLE", user.getRole().toString()) // Add role to token
                 .withClaim("USERNAME", user.getUsername()) // Add role to token// Add role to token
+                .withClaim("ID", user.getId()) // numeric id used by the binary chat protocol
                 .withExpiresAt(new Date(System.currentTimeMillis() + (1000 * expiryInSeconds)))
                 .withIssuer(issuer)
                 .sign(algorithm);
     }
 
+    /**
+     * Checks signature, issuer and expiry of the token.
+     * Throws {@link JWTVerificationException} when any of them is invalid.
+     */
+    public DecodedJWT verify(String token) throws JWTVerificationException {
+        return verifier.verify(token);
+    }
+
     public String getRole(String token) {
         return JWT.decode(token).getClaim("ROLE").asString(); // Extract role from token
     }
@@ -55,15 +67,11 @@ public class JWTService {
     }
 
     @Autowired
-    private UserRepo userRepository;
+    private RoleDirectory roleDirectory;
 
 
     public String getRoleByUsername(String username) {
-        Optional<User> optionalUser = userRepository.findByUsernameIgnoreCase(username);
-        if (optionalUser.isPresent()) {
-            return optionalUser.get().getRole().toString(); // ممكن تكون "USER" أو "MERCHANT"
-        }
-        return "UNKNOWN";
+        return roleDirectory.getRole(username); // ممكن تكون "USER" أو "MERCHANT" أو "UNKNOWN"
     }
 
 
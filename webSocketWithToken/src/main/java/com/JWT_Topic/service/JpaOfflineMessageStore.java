@@ -0,0 +1,168 @@
+package com.JWT_Topic.service;
+
+import com.JWT_Topic.entity.OfflineMessage;
+import com.JWT_Topic.entity.repo.OfflineMessageRepo;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Offline store shared by every instance through the {@code offline_message} table.
+ * <p>
+ * Appends are buffered and inserted in JDBC batches, so the send path only waits for
+ * the database when the buffer is full, and then at most {@code appendTimeoutMillis}.
+ * A recipient may drain on another node before the batch with its messages commits,
+ * so every committed batch is reported to the {@link StoredListener}s. Reads first have
+ * the writer thread flush this node's buffer, waiting at most {@code flushWaitMillis}; if
+ * the database is down they go on with the rows already committed, and messages that
+ * commit later are reported to the listeners like any other batch.
+ * <p>
+ * A drain reads the head of the recipient's queue, in message id order, locked with
+ * {@code FOR UPDATE SKIP LOCKED}, and removes each page with one bulk delete; the next
+ * page is the new head. There is no keyset cursor: the deletes move the drain forward.
+ * A second copy of a message (a late cluster ack, a message put back that is still
+ * stored) hits the unique key on (recipient, message id) and is skipped by the insert
+ * itself, without failing the batch it is in.
+ */
+public class JpaOfflineMessageStore implements OfflineMessageStore, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JpaOfflineMessageStore.class);
+
+    private static final String INSERT =
+            "INSERT INTO offline_message (recipient, message_id, payload, created_at) VALUES (?, ?, ?, ?) "
+                    + "ON DUPLICATE KEY UPDATE message_id = message_id";
+    private static final String EXPIRED_PER_RECIPIENT =
+            "SELECT recipient, COUNT(*), SUM(LENGTH(payload)) FROM offline_message WHERE created_at < ? GROUP BY recipient";
+    private static final String DELETE_EXPIRED =
+            "DELETE FROM offline_message WHERE created_at < ?";
+    private static final String PENDING_PER_RECIPIENT =
+            "SELECT recipient, COUNT(*), SUM(LENGTH(payload)) FROM offline_message GROUP BY recipient";
+
+    private final OfflineMessageRepo repo;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int pageSize;
+    private final long appendTimeoutMillis;
+    private final long flushWaitMillis;
+    private final WriteBehindBuffer<OfflineMessage> buffer;
+    private final List<StoredListener> listeners = new CopyOnWriteArrayList<>();
+
+    public JpaOfflineMessageStore(OfflineMessageRepo repo, JdbcTemplate jdbcTemplate,
+                                  TransactionTemplate transactionTemplate, MeterRegistry meterRegistry,
+                                  int batchSize, int bufferCapacity, long flushIntervalMillis, int pageSize,
+                                  long appendTimeoutMillis, long flushWaitMillis) {
+        this.repo = repo;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.pageSize = pageSize;
+        this.appendTimeoutMillis = appendTimeoutMillis;
+        this.flushWaitMillis = flushWaitMillis;
+        this.buffer = new WriteBehindBuffer<>("offline-messages", batchSize, bufferCapacity, flushIntervalMillis,
+                this::insertBatch);
+        FunctionCounter.builder("chat.offline.dead-lettered", buffer, WriteBehindBuffer::deadLettered)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public Outcome append(String recipient, Envelope message) {
+        OfflineMessage offlineMessage = new OfflineMessage();
+        offlineMessage.setRecipient(recipient);
+        offlineMessage.setMessageId(message.id());
+        offlineMessage.setPayload(message.line());
+        offlineMessage.setCreatedAt(LocalDateTime.now());
+        // A duplicate only shows at insert time; quotas count it until the next usage refresh
+        return buffer.add(offlineMessage, appendTimeoutMillis) ? Outcome.STORED : Outcome.REFUSED;
+    }
+
+    @Override
+    public List<Envelope> poll(String recipient, int max) {
+        // Make messages still sitting in this node's buffer visible to the drain
+        buffer.awaitFlush(flushWaitMillis);
+
+        List<Envelope> messages = new ArrayList<>();
+        transactionTemplate.executeWithoutResult(status -> {
+            while (messages.size() < max) {
+                // Rows deleted by this transaction no longer match, so each page starts at the head
+                List<OfflineMessage> page = repo.lockPage(recipient, Math.min(pageSize, max - messages.size()));
+                if (page.isEmpty()) {
+                    break;
+                }
+                List<Long> ids = new ArrayList<>(page.size());
+                for (OfflineMessage offlineMessage : page) {
+                    messages.add(new Envelope(offlineMessage.getMessageId(), offlineMessage.getPayload()));
+                    ids.add(offlineMessage.getId());
+                }
+                repo.deleteAllByIdInBatch(ids);
+            }
+        });
+        return messages;
+    }
+
+    @Override
+    public void expire(long cutoffMillis, EvictionListener listener) {
+        buffer.awaitFlush(flushWaitMillis);
+        Timestamp cutoff = new Timestamp(cutoffMillis);
+        transactionTemplate.executeWithoutResult(status -> {
+            jdbcTemplate.query(EXPIRED_PER_RECIPIENT,
+                    rs -> {
+                        listener.evicted(rs.getString(1), rs.getInt(2), rs.getLong(3));
+                    },
+                    cutoff);
+            jdbcTemplate.update(DELETE_EXPIRED, cutoff);
+        });
+    }
+
+    @Override
+    public void usage(UsageListener listener) {
+        buffer.awaitFlush(flushWaitMillis);
+        jdbcTemplate.query(PENDING_PER_RECIPIENT,
+                rs -> {
+                    listener.pending(rs.getString(1), rs.getInt(2), rs.getLong(3));
+                });
+    }
+
+    @Override
+    public void subscribe(StoredListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        buffer.close();
+    }
+
+    private void insertBatch(List<OfflineMessage> batch) {
+        // One transaction, so a batch the buffer writes again item by item was not partly inserted
+        transactionTemplate.executeWithoutResult(status ->
+                jdbcTemplate.batchUpdate(INSERT, batch, batch.size(), (ps, message) -> {
+                    ps.setString(1, message.getRecipient());
+                    ps.setLong(2, message.getMessageId());
+                    ps.setString(3, message.getPayload());
+                    ps.setTimestamp(4, Timestamp.valueOf(message.getCreatedAt()));
+                }));
+
+        Set<String> recipients = new HashSet<>();
+        for (OfflineMessage message : batch) {
+            recipients.add(message.getRecipient());
+        }
+        for (StoredListener listener : listeners) {
+            try {
+                listener.stored(recipients);
+            } catch (RuntimeException ex) {
+                // the batch is committed; a failing listener must not get it written twice
+                log.warn("Offline store listener failed", ex);
+            }
+        }
+    }
+}
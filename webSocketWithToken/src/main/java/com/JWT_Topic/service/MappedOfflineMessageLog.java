@@ -0,0 +1,656 @@
+package com.JWT_Topic.service;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * Append-only offline message log kept in fixed-size, memory-mapped segment files.
+ * <p>
+ * Only a small pointer per message lives on the heap (a per-recipient queue of
+ * segment/offset positions); the message bytes stay in the mapped files and are read
+ * back when the recipient reconnects. Delivered records are flagged in place, segments
+ * without live records are deleted, and sparse segments are compacted by copying their
+ * remaining records to the head of the log.
+ * <p>
+ * Record layout: {@code [int length][byte status][long id][long createdAt][short recipientLength][recipient][payload]}.
+ * A zero length marks the end of the written part of a segment. Each recipient's queue is
+ * kept in message id order; appends almost always go to its tail, a message put back
+ * after a failed delivery is inserted in place.
+ * <p>
+ * A clean {@link #close()} also writes the in-heap index to a compact snapshot file.
+ * On the next start the snapshot is memory-mapped and loaded instead of scanning every
+ * segment, as long as the segments are exactly as it describes; it is deleted once
+ * loaded, so a crash later falls back to the full scan.
+ */
+public class MappedOfflineMessageLog implements OfflineMessageStore, AutoCloseable {
+
+    private static final String SUFFIX = ".seg";
+    private static final byte LIVE = 1;
+    private static final byte DELIVERED = 2;
+    private static final int HEADER = 4 + 1 + 8 + 8 + 2;
+    private static final double COMPACT_BELOW = 0.25;
+    private static final String SNAPSHOT = "index.snap";
+    private static final int SNAPSHOT_MAGIC = 0x43484958;
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private final Path directory;
+    private final int segmentBytes;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+    private final Map<String, Deque<Long>> index = new HashMap<>();
+    private Segment active;
+    private boolean compacting;
+
+    public MappedOfflineMessageLog(Path directory, int segmentBytes) {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        try {
+            Files.createDirectories(directory);
+            recover();
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot open offline message log in " + directory, ex);
+        }
+    }
+
+    @Override
+    public Outcome append(String recipient, Envelope message) {
+        byte[] recipientBytes = recipient.getBytes(StandardCharsets.UTF_8);
+        byte[] payload = message.line().getBytes(StandardCharsets.UTF_8);
+        int length = HEADER + recipientBytes.length + payload.length;
+        if (length > segmentBytes) {
+            throw new IllegalArgumentException("Message of " + length + " bytes does not fit in a log segment");
+        }
+
+        lock.lock();
+        try {
+            Deque<Long> positions = index.computeIfAbsent(recipient, k -> new ArrayDeque<>());
+            if (contains(positions, message.id())) {
+                return Outcome.DUPLICATE;
+            }
+            long position = write(recipientBytes, payload, length, message.id(), System.currentTimeMillis());
+            insert(positions, position, message.id());
+        } finally {
+            lock.unlock();
+        }
+        return Outcome.STORED;
+    }
+
+    @Override
+    public List<Envelope> poll(String recipient, int max) {
+        List<Envelope> messages = new ArrayList<>();
+        lock.lock();
+        try {
+            Deque<Long> positions = index.get(recipient);
+            if (positions == null) {
+                return messages;
+            }
+            List<Segment> touched = new ArrayList<>();
+            while (messages.size() < max && !positions.isEmpty()) {
+                long position = positions.pollFirst();
+                Segment segment = segments.get(segmentId(position));
+                int offset = offset(position);
+                messages.add(new Envelope(segment.messageId(offset), segment.payload(offset)));
+                segment.buffer.put(offset + 4, DELIVERED);
+                segment.live--;
+                if (!touched.contains(segment)) {
+                    touched.add(segment);
+                }
+            }
+            if (positions.isEmpty()) {
+                index.remove(recipient);
+            }
+            for (Segment segment : touched) {
+                // A compaction may already have deleted it
+                if (segments.containsKey(segment.id)) {
+                    reclaim(segment);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        return messages;
+    }
+
+    @Override
+    public void expire(long cutoffMillis, EvictionListener listener) {
+        lock.lock();
+        try {
+            List<Segment> touched = new ArrayList<>();
+            Iterator<Map.Entry<String, Deque<Long>>> entries = index.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Deque<Long>> entry = entries.next();
+                Deque<Long> positions = entry.getValue();
+                int messages = 0;
+                long bytes = 0;
+                // Records of a recipient are queued by id, which is close enough to oldest first;
+                // a message put back behind a newer one waits for the next sweep.
+                while (!positions.isEmpty()) {
+                    long position = positions.peekFirst();
+                    Segment segment = segments.get(segmentId(position));
+                    int offset = offset(position);
+                    if (segment.buffer.getLong(offset + 13) >= cutoffMillis) {
+                        break;
+                    }
+                    positions.pollFirst();
+                    bytes += segment.payloadLength(offset);
+                    messages++;
+                    segment.buffer.put(offset + 4, DELIVERED);
+                    segment.live--;
+                    if (!touched.contains(segment)) {
+                        touched.add(segment);
+                    }
+                }
+                if (positions.isEmpty()) {
+                    entries.remove();
+                }
+                if (messages > 0) {
+                    listener.evicted(entry.getKey(), messages, bytes);
+                }
+            }
+            for (Segment segment : touched) {
+                if (segments.containsKey(segment.id)) {
+                    reclaim(segment);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void usage(UsageListener listener) {
+        lock.lock();
+        try {
+            for (Map.Entry<String, Deque<Long>> entry : index.entrySet()) {
+                long bytes = 0;
+                for (long position : entry.getValue()) {
+                    bytes += segments.get(segmentId(position)).payloadLength(offset(position));
+                }
+                listener.pending(entry.getKey(), entry.getValue().size(), bytes);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Forces the active segment to disk.
+     */
+    public void flush() {
+        lock.lock();
+        try {
+            active.buffer.force();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.buffer.force();
+            }
+            writeSnapshot();
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // ========== Writing ==========
+
+    /**
+     * Whether the queue already holds the id. Only the tail with ids at or above it is looked at.
+     */
+    private boolean contains(Deque<Long> positions, long id) {
+        Iterator<Long> newestFirst = positions.descendingIterator();
+        while (newestFirst.hasNext()) {
+            long queued = idAt(newestFirst.next());
+            if (queued <= id) {
+                return queued == id;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Adds the position to the queue behind every lower id.
+     */
+    private void insert(Deque<Long> positions, long position, long id) {
+        Deque<Long> newer = new ArrayDeque<>();
+        while (!positions.isEmpty() && idAt(positions.peekLast()) > id) {
+            newer.addFirst(positions.pollLast());
+        }
+        positions.addLast(position);
+        positions.addAll(newer);
+    }
+
+    private long idAt(long position) {
+        return segments.get(segmentId(position)).messageId(offset(position));
+    }
+
+    private long write(byte[] recipient, byte[] payload, int length, long messageId, long createdAt) {
+        if (active.writePos + length > segmentBytes) {
+            roll();
+        }
+        MappedByteBuffer buffer = active.buffer;
+        int offset = active.writePos;
+        buffer.put(offset + 4, LIVE);
+        buffer.putLong(offset + 5, messageId);
+        buffer.putLong(offset + 13, createdAt);
+        buffer.putShort(offset + 21, (short) recipient.length);
+        buffer.put(offset + HEADER, recipient);
+        buffer.put(offset + HEADER + recipient.length, payload);
+        // The length is written last so a torn write is never read back as a record.
+        buffer.putInt(offset, length);
+
+        active.writePos += length;
+        active.live++;
+        active.total++;
+        return position(active.id, offset);
+    }
+
+    private void roll() {
+        Segment previous = active;
+        previous.buffer.force();
+        active = openSegment(previous.id + 1);
+        segments.put(active.id, active);
+        reclaim(previous);
+    }
+
+    // ========== Compaction ==========
+
+    private void reclaim(Segment segment) {
+        if (segment == active) {
+            return;
+        }
+        if (segment.live == 0) {
+            delete(segment);
+        } else if (!compacting && segment.live < segment.total * COMPACT_BELOW) {
+            compacting = true;
+            try {
+                compact(segment);
+            } finally {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Copies the live records of a sparse segment to the active one and deletes it.
+     * The per-recipient queues keep their order because positions are swapped in place.
+     */
+    private void compact(Segment segment) {
+        Map<Long, Long> moved = new HashMap<>();
+        Map<String, Boolean> recipients = new HashMap<>();
+        int offset = 0;
+        int length;
+        while (offset + HEADER <= segmentBytes && (length = segment.buffer.getInt(offset)) > 0) {
+            if (segment.buffer.get(offset + 4) == LIVE) {
+                String recipient = segment.recipient(offset);
+                byte[] recipientBytes = recipient.getBytes(StandardCharsets.UTF_8);
+                byte[] payload = segment.payload(offset).getBytes(StandardCharsets.UTF_8);
+                long newPosition = write(recipientBytes, payload, length,
+                        segment.buffer.getLong(offset + 5), segment.buffer.getLong(offset + 13));
+                moved.put(position(segment.id, offset), newPosition);
+                recipients.put(recipient, Boolean.TRUE);
+            }
+            offset += length;
+        }
+        for (String recipient : recipients.keySet()) {
+            Deque<Long> positions = index.get(recipient);
+            Deque<Long> updated = new ArrayDeque<>(positions.size());
+            for (Long position : positions) {
+                updated.addLast(moved.getOrDefault(position, position));
+            }
+            index.put(recipient, updated);
+        }
+        delete(segment);
+    }
+
+    private void delete(Segment segment) {
+        segments.remove(segment.id);
+        segment.release();
+        try {
+            Files.deleteIfExists(segment.path);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    // ========== Recovery ==========
+
+    private void recover() throws IOException {
+        List<Path> files;
+        try (Stream<Path> list = Files.list(directory)) {
+            files = list.filter(p -> p.getFileName().toString().endsWith(SUFFIX))
+                    .sorted(Comparator.comparing(p -> p.getFileName().toString()))
+                    .toList();
+        }
+
+        if (!loadSnapshot(files)) {
+            scan(files);
+        }
+
+        if (segments.isEmpty()) {
+            active = openSegment(0);
+            segments.put(0, active);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+        Iterator<Segment> it = new ArrayList<>(segments.values()).iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment != active && segment.live == 0) {
+                delete(segment);
+            }
+        }
+    }
+
+    /**
+     * Rebuilds the index by reading every record of every segment. Records written before
+     * messages had ids carry a small per-log sequence instead, and sort first.
+     */
+    private void scan(List<Path> files) {
+        Map<String, List<long[]>> pending = new HashMap<>();
+        for (Path file : files) {
+            String name = file.getFileName().toString();
+            int id = Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+            Segment segment = openSegment(id);
+            int offset = 0;
+            int length;
+            while (offset + HEADER <= segmentBytes && (length = segment.buffer.getInt(offset)) > 0) {
+                long messageId = segment.buffer.getLong(offset + 5);
+                segment.total++;
+                if (segment.buffer.get(offset + 4) == LIVE) {
+                    segment.live++;
+                    pending.computeIfAbsent(segment.recipient(offset), k -> new ArrayList<>())
+                            .add(new long[]{messageId, position(id, offset)});
+                }
+                offset += length;
+            }
+            segment.writePos = offset;
+            segments.put(id, segment);
+        }
+
+        // Compaction and put-back messages leave records out of file order, so restore it by id.
+        pending.forEach((recipient, records) -> {
+            records.sort(Comparator.comparingLong(r -> r[0]));
+            Deque<Long> positions = new ArrayDeque<>(records.size());
+            for (long[] record : records) {
+                positions.addLast(record[1]);
+            }
+            index.put(recipient, positions);
+        });
+    }
+
+    // ========== Snapshot ==========
+
+    /**
+     * {@code [int magic][int version][int segments]([int id][int writePos][int live][int total])*
+     * [int recipients]([short length][recipient][int count][long position]*)*}
+     */
+    private void writeSnapshot() {
+        Path snapshot = directory.resolve(SNAPSHOT);
+        Path temp = directory.resolve(SNAPSHOT + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(segments.size());
+            for (Segment segment : segments.values()) {
+                out.writeInt(segment.id);
+                out.writeInt(segment.writePos);
+                out.writeInt(segment.live);
+                out.writeInt(segment.total);
+            }
+            out.writeInt(index.size());
+            for (Map.Entry<String, Deque<Long>> entry : index.entrySet()) {
+                byte[] recipient = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                out.writeShort(recipient.length);
+                out.write(recipient);
+                out.writeInt(entry.getValue().size());
+                for (long position : entry.getValue()) {
+                    out.writeLong(position);
+                }
+            }
+            out.flush();
+            file.getFD().sync();
+        } catch (IOException ex) {
+            // Not fatal: the next start scans the segments instead
+            deleteQuietly(temp);
+            return;
+        }
+        try {
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            deleteQuietly(temp);
+        }
+    }
+
+    /**
+     * Loads the index from the snapshot if there is one and the segment files match it;
+     * {@code false} leaves the log empty for a full scan.
+     */
+    private boolean loadSnapshot(List<Path> files) throws IOException {
+        Path snapshot = directory.resolve(SNAPSHOT);
+        if (!Files.exists(snapshot)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.getInt() != SNAPSHOT_MAGIC || in.getInt() != SNAPSHOT_VERSION) {
+                return false;
+            }
+            int segmentCount = in.getInt();
+            Set<Integer> ids = new HashSet<>();
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                ids.add(Integer.parseInt(name.substring(0, name.length() - SUFFIX.length())));
+            }
+            if (ids.size() != segmentCount) {
+                return false;
+            }
+            for (int i = 0; i < segmentCount; i++) {
+                int id = in.getInt();
+                if (!ids.contains(id)) {
+                    return discardSnapshot();
+                }
+                Segment segment = openSegment(id);
+                segment.writePos = in.getInt();
+                segment.live = in.getInt();
+                segment.total = in.getInt();
+                segments.put(id, segment);
+                // Anything written after the snapshot makes it stale
+                if (segment.writePos + HEADER <= segmentBytes && segment.buffer.getInt(segment.writePos) != 0) {
+                    return discardSnapshot();
+                }
+            }
+            int recipients = in.getInt();
+            for (int i = 0; i < recipients; i++) {
+                byte[] recipient = new byte[in.getShort()];
+                in.get(recipient);
+                int count = in.getInt();
+                Deque<Long> positions = new ArrayDeque<>(count);
+                for (int j = 0; j < count; j++) {
+                    positions.addLast(in.getLong());
+                }
+                index.put(new String(recipient, StandardCharsets.UTF_8), positions);
+            }
+        } catch (RuntimeException ex) {
+            // truncated or corrupt
+            return discardSnapshot();
+        } finally {
+            // Appends after this start make the snapshot stale, so it is only ever used once
+            deleteQuietly(snapshot);
+        }
+        return true;
+    }
+
+    private boolean discardSnapshot() {
+        for (Segment segment : segments.values()) {
+            segment.release();
+        }
+        segments.clear();
+        index.clear();
+        return false;
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // a stale file is ignored or overwritten next time
+        }
+    }
+
+    // ========== Segments ==========
+
+    private Segment openSegment(int id) {
+        Path path = directory.resolve(String.format("%010d%s", id, SUFFIX));
+        try {
+            FileChannel channel = FileChannel.open(path,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            return new Segment(id, path, channel, buffer);
+        } catch (IOException ex) {
+            throw new UncheckedIOException("Cannot map log segment " + path, ex);
+        }
+    }
+
+    private static long position(int segmentId, int offset) {
+        return ((long) segmentId << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int segmentId(long position) {
+        return (int) (position >>> 32);
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    private static final class Segment {
+        final int id;
+        final Path path;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        int writePos;
+        int live;
+        int total;
+
+        Segment(int id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        long messageId(int offset) {
+            return buffer.getLong(offset + 5);
+        }
+
+        String recipient(int offset) {
+            int length = buffer.getShort(offset + 21);
+            byte[] bytes = new byte[length];
+            buffer.get(offset + HEADER, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        String payload(int offset) {
+            int start = offset + HEADER + buffer.getShort(offset + 21);
+            byte[] bytes = new byte[payloadLength(offset)];
+            buffer.get(start, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        int payloadLength(int offset) {
+            return buffer.getInt(offset) - HEADER - buffer.getShort(offset + 21);
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // the mapping stays valid until it is garbage collected
+            }
+        }
+
+        /**
+         * Closes the segment and unmaps it right away instead of leaving the mapping to
+         * the garbage collector. Nothing may read the buffer afterwards.
+         */
+        void release() {
+            close();
+            Unmapper.unmap(buffer);
+        }
+    }
+
+    /**
+     * Unmaps buffers through {@code Unsafe.invokeCleaner}, the only way to do it before
+     * the mapping is collected. If that is not available, mappings are left to the GC.
+     */
+    private static final class Unmapper {
+
+        private static final Object UNSAFE;
+        private static final Method INVOKE_CLEANER;
+
+        static {
+            Object unsafe = null;
+            Method invokeCleaner = null;
+            try {
+                Class<?> type = Class.forName("sun.misc.Unsafe");
+                Field field = type.getDeclaredField("theUnsafe");
+                field.setAccessible(true);
+                unsafe = field.get(null);
+                invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // fall back to the garbage collector
+            }
+            UNSAFE = unsafe;
+            INVOKE_CLEANER = invokeCleaner;
+        }
+
+        static void unmap(MappedByteBuffer buffer) {
+            if (INVOKE_CLEANER == null) {
+                return;
+            }
+            try {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+            } catch (ReflectiveOperationException | RuntimeException ignored) {
+                // left to the garbage collector
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.JWT_Topic.service;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the ids chat messages keep for good: the same id goes to every device, into
+ * the offline store, across the cluster bus and into the history, so a client can tell
+ * a redelivered message from a new one.
+ * <p>
+ * Ids are stamped locally: the high bits are milliseconds, then 8 bits of node index,
+ * then a 12-bit counter. They grow on each node, roughly follow wall-clock order across
+ * nodes, and never collide as long as the nodes have different indexes.
+ */
+public class MessageIds {
+
+    private static final int COUNTER_BITS = 12;
+    private static final int NODE_BITS = 8;
+
+    private final long nodeBits;
+
+    /** Milliseconds and counter of the last stamped id. */
+    private final AtomicLong lastStamp = new AtomicLong();
+
+    public MessageIds(int nodeIndex) {
+        this.nodeBits = (long) (nodeIndex & ((1 << NODE_BITS) - 1)) << COUNTER_BITS;
+    }
+
+    public long next() {
+        long millis = System.currentTimeMillis();
+        // If more than 4096 messages land in one millisecond the counter borrows from the next one
+        long stamp = lastStamp.updateAndGet(last -> Math.max(last + 1, millis << COUNTER_BITS));
+        long stampMillis = stamp >>> COUNTER_BITS;
+        long counter = stamp & ((1L << COUNTER_BITS) - 1);
+        return (stampMillis << (NODE_BITS + COUNTER_BITS)) | nodeBits | counter;
+    }
+}
@@ -0,0 +1,84 @@
+package com.JWT_Topic.service;
+
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Holds chat messages for recipients that are not connected.
+ * <p>
+ * A recipient's messages are kept in message id order, whatever order they were appended
+ * in, so a message put back after a failed delivery takes its old place again. A message
+ * whose id the recipient already has waiting is stored only once.
+ */
+public interface OfflineMessageStore {
+
+    /**
+     * Stores the message. {@link Outcome#REFUSED} if the store refused it (quota exceeded).
+     */
+    Outcome append(String recipient, Envelope message);
+
+    /**
+     * Stores a message that was already accepted once and is handed back after a failed
+     * delivery. Quotas do not apply: refusing it now would lose a message its sender was
+     * told went through. {@link Outcome#REFUSED} only if the store could not take it at all.
+     */
+    default Outcome putBack(String recipient, Envelope message) {
+        return append(recipient, message);
+    }
+
+    /**
+     * Removes and returns up to {@code max} of the recipient's pending messages, lowest id first.
+     * Returns an empty list once nothing is pending.
+     */
+    List<Envelope> poll(String recipient, int max);
+
+    /**
+     * Drops every message stored before {@code cutoffMillis} (epoch millis) and reports
+     * what was dropped per recipient.
+     */
+    void expire(long cutoffMillis, EvictionListener listener);
+
+    /**
+     * Reports how many messages and bytes wait for each recipient, counting what every
+     * node sharing the store appended.
+     */
+    void usage(UsageListener listener);
+
+    /**
+     * Registers a callback for messages that become visible to {@link #poll} only some
+     * time after {@link #append} returned, such as buffered inserts. Stores that write
+     * synchronously never call it.
+     */
+    default void subscribe(StoredListener listener) {
+    }
+
+    /**
+     * What {@link #append} and {@link #putBack} did with a message.
+     */
+    enum Outcome {
+        /** The message was written. */
+        STORED,
+        /** The recipient already had a message with this id waiting; nothing was written. */
+        DUPLICATE,
+        /** The store did not take the message. */
+        REFUSED;
+
+        /** Whether the message is waiting in the store now, whichever append wrote it. */
+        public boolean accepted() {
+            return this != REFUSED;
+        }
+    }
+
+    interface EvictionListener {
+        void evicted(String recipient, int messages, long bytes);
+    }
+
+    interface UsageListener {
+        void pending(String recipient, int messages, long bytes);
+    }
+
+    interface StoredListener {
+        /** Messages for these recipients can now be polled, on every node sharing the store. */
+        void stored(Set<String> recipients);
+    }
+}
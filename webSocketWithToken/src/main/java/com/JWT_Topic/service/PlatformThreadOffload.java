@@ -0,0 +1,63 @@
+package com.JWT_Topic.service;
+
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs blocking calls that hold a monitor during I/O (JavaMail's SMTP transport
+ * synchronizes around its socket) on a small pool of platform threads.
+ * <p>
+ * A virtual thread blocked inside {@code synchronized} pins its carrier, and a few of
+ * them can stall every other virtual thread. Called from a virtual thread, the work is
+ * handed to the pool and the caller parks until it is done; called from a platform
+ * thread, it runs in place. Exceptions reach the caller unchanged either way.
+ */
+@Service
+public class PlatformThreadOffload {
+
+    private final ExecutorService executor;
+
+    public PlatformThreadOffload(@Value("${chat.blocking-io.platform-threads:8}") int threads) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "blocking-io-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void run(Runnable task) {
+        if (!Thread.currentThread().isVirtual()) {
+            task.run();
+            return;
+        }
+        Future<?> result = executor.submit(task);
+        try {
+            result.get();
+        } catch (InterruptedException ex) {
+            result.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for blocking I/O", ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            if (ex.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw new IllegalStateException(ex.getCause());
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
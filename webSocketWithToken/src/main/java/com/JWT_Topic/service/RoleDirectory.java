@@ -0,0 +1,171 @@
+package com.JWT_Topic.service;
+
+import com.JWT_Topic.entity.Role;
+import com.JWT_Topic.entity.repo.UserRepo;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, TTL-based cache of username → role used by the chat permission checks.
+ * Misses are loaded through a projection query that only selects the role column;
+ * unknown usernames are cached too so repeated sends to a bad target stay off the DB.
+ * <p>
+ * The binary protocol addresses users by id, so user id → username is cached next to
+ * the roles, under the same bound, TTL and invalidation.
+ */
+@Service
+public class RoleDirectory {
+
+    public static final String UNKNOWN = "UNKNOWN";
+
+    private final UserRepo userRepo;
+    private final int maxEntries;
+    private final long ttlNanos;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, Entry> entries;
+    private final Map<Long, Entry> usernames;
+    /** Bumped by every invalidation; a load that overlapped one is not cached. */
+    private long generation;
+
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter evictions;
+
+    public RoleDirectory(UserRepo userRepo,
+                         MeterRegistry meterRegistry,
+                         @Value("${chat.role-cache.max-entries:10000}") int maxEntries,
+                         @Value("${chat.role-cache.ttl-seconds:300}") long ttlSeconds) {
+        this.userRepo = userRepo;
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.SECONDS.toNanos(ttlSeconds);
+        this.hits = meterRegistry.counter("chat.role.cache.requests", "result", "hit");
+        this.misses = meterRegistry.counter("chat.role.cache.requests", "result", "miss");
+        this.evictions = meterRegistry.counter("chat.role.cache.evictions");
+        this.entries = boundedMap();
+        this.usernames = boundedMap();
+        meterRegistry.gauge("chat.role.cache.size", this, RoleDirectory::size);
+    }
+
+    private <K> Map<K, Entry> boundedMap() {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry> eldest) {
+                if (size() > maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the role name ("USER", "MERCHANT") of the given user, or {@link #UNKNOWN}.
+     */
+    public String getRole(String username) {
+        if (username == null) {
+            return UNKNOWN;
+        }
+        String key = username.toLowerCase();
+        long now = System.nanoTime();
+
+        long loadGeneration;
+        lock.lock();
+        try {
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.increment();
+                return entry.value;
+            }
+            loadGeneration = generation;
+        } finally {
+            lock.unlock();
+        }
+
+        // Load outside the lock so a slow query never blocks cache hits.
+        misses.increment();
+        String role = userRepo.findRoleByUsernameIgnoreCase(username)
+                .map(Role::toString)
+                .orElse(UNKNOWN);
+
+        lock.lock();
+        try {
+            // The row may have changed while it was loaded; the role is still right for
+            // this call, but caching it could keep a stale role for the whole TTL
+            if (generation == loadGeneration) {
+                entries.put(key, new Entry(role, now + ttlNanos));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return role;
+    }
+
+    /**
+     * Returns the username of the user with the given id, or {@code null} if there is none.
+     */
+    public String getUsername(long id) {
+        long now = System.nanoTime();
+
+        long loadGeneration;
+        lock.lock();
+        try {
+            Entry entry = usernames.get(id);
+            if (entry != null && entry.expiresAt - now > 0) {
+                hits.increment();
+                return entry.value;
+            }
+            loadGeneration = generation;
+        } finally {
+            lock.unlock();
+        }
+
+        misses.increment();
+        String username = userRepo.findUsernameById(id).orElse(null);
+
+        lock.lock();
+        try {
+            if (generation == loadGeneration) {
+                usernames.put(id, new Entry(username, now + ttlNanos));
+            }
+        } finally {
+            lock.unlock();
+        }
+        return username;
+    }
+
+    public void invalidate(Long id, String username) {
+        lock.lock();
+        try {
+            if (id != null) {
+                usernames.remove(id);
+            }
+            if (username != null) {
+                entries.remove(username.toLowerCase());
+            }
+            generation++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return entries.size() + usernames.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private record Entry(String value, long expiresAt) {
+    }
+}
@@ -21,6 +21,8 @@ public class UserService {
     private JWTService jwtService;
     @Autowired
     private AuthService authService;
+    @Autowired
+    private UsernameFilter usernameFilter;
 
     public User registerUser(RegistrationBody registrationBody) throws UserAlreadyExistsException {
         if (userRepo.findByEmailIgnoreCase(registrationBody.getEmail()).isPresent()) {
@@ -39,6 +41,7 @@ public class UserService {
         user.setRole(registrationBody.getRole());
 
         userRepo.save(user);
+        usernameFilter.add(user.getUsername());
         authService.generateAndSendOtp(user.getEmail());
 
         return user;
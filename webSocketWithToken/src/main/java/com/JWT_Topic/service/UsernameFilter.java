@@ -0,0 +1,118 @@
+package com.JWT_Topic.service;
+
+import com.JWT_Topic.cluster.ClusterBus;
+import com.JWT_Topic.cluster.ClusterMessage;
+import com.JWT_Topic.entity.repo.UserRepo;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory Bloom filter of registered usernames (case-insensitive).
+ * {@link #mightContain} never returns {@code false} for an existing user, so a
+ * negative answer lets the chat reject a target without touching the database.
+ * <p>
+ * Every node loads the filter at startup; a username registered later is announced to
+ * the other nodes ({@code REGISTERED}) so their filters do not reject it.
+ */
+@Service
+public class UsernameFilter implements ClusterBus.Listener {
+
+    private final UserRepo userRepo;
+    private final ClusterBus bus;
+    private final int bitCount;
+    private final int hashCount;
+    private final AtomicLongArray bits;
+
+    public UsernameFilter(UserRepo userRepo, ClusterBus bus,
+                          @Value("${chat.username-filter.expected-users:1000000}") long expectedUsers,
+                          @Value("${chat.username-filter.false-positive-rate:0.01}") double falsePositiveRate) {
+        this.userRepo = userRepo;
+        this.bus = bus;
+        long optimalBits = (long) Math.ceil(-expectedUsers * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bitCount = (int) Math.min(Integer.MAX_VALUE - 63, Math.max(64, optimalBits));
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedUsers * Math.log(2)));
+        this.bits = new AtomicLongArray((bitCount + 63) / 64);
+    }
+
+    @PostConstruct
+    public void load() {
+        // Subscribed first: a name registered elsewhere during the load is not missed
+        bus.subscribe(this);
+        for (String username : userRepo.findAllUsernames()) {
+            set(username);
+        }
+    }
+
+    /**
+     * Adds a newly registered username here and on the other nodes.
+     */
+    public void add(String username) {
+        set(username);
+        bus.broadcast(ClusterMessage.registered(username));
+    }
+
+    @Override
+    public void onMessage(String node, ClusterMessage message) {
+        if (message.type() == ClusterMessage.Type.REGISTERED) {
+            set(message.username());
+        }
+    }
+
+    private void set(String username) {
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = index(h1 + i * h2);
+            int word = bit >>> 6;
+            long mask = 1L << bit;
+            long current;
+            while (((current = bits.get(word)) & mask) == 0) {
+                if (bits.compareAndSet(word, current, current | mask)) {
+                    break;
+                }
+            }
+        }
+    }
+
+    public boolean mightContain(String username) {
+        if (username == null) {
+            return false;
+        }
+        long hash = hash(username);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 1; i <= hashCount; i++) {
+            int bit = index(h1 + i * h2);
+            if ((bits.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int index(int combined) {
+        return (combined & Integer.MAX_VALUE) % bitCount;
+    }
+
+    /**
+     * 64-bit FNV-1a over the lower-cased UTF-8 bytes, finished with a murmur3 mix.
+     */
+    private static long hash(String username) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : username.toLowerCase().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b;
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,210 @@
+package com.JWT_Topic.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.RecoverableDataAccessException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.transaction.TransactionException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Collects items on the caller's thread and hands them to a writer in batches,
+ * either when a batch is full or when the flush interval elapses.
+ * Batches are written in order, one at a time.
+ * <p>
+ * A batch the writer refuses is written again item by item, so one bad item cannot hold
+ * up the rest: an item that fails on its own is dropped and counted ({@link #deadLettered()}).
+ * Failures that look like an outage (no connection, transient errors) drop nothing; the
+ * unwritten items wait for the next flush.
+ */
+public class WriteBehindBuffer<T> implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindBuffer.class);
+
+    private final String name;
+    private final int batchSize;
+    private final Consumer<List<T>> writer;
+    private final BlockingQueue<T> queue;
+    private final ScheduledExecutorService scheduler;
+
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private List<T> failed = new ArrayList<>();
+    private final AtomicLong deadLettered = new AtomicLong();
+
+    public WriteBehindBuffer(String name, int batchSize, int capacity, long flushIntervalMillis,
+                             Consumer<List<T>> writer) {
+        this.name = name;
+        this.batchSize = batchSize;
+        this.writer = writer;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, name + "-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Buffers the item, waiting up to {@code timeoutMillis} for room when the buffer is
+     * full, which pushes back on callers instead of growing without bound while the
+     * database is unavailable. {@code false} means the item was not taken.
+     */
+    public boolean add(T item, long timeoutMillis) {
+        try {
+            if (!queue.offer(item, timeoutMillis, TimeUnit.MILLISECONDS)) {
+                return false;
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        flushIfBatchFull();
+        return true;
+    }
+
+    /**
+     * Buffers the item unless the buffer is full; never blocks.
+     * {@code false} means the item was not taken.
+     */
+    public boolean offer(T item) {
+        if (!queue.offer(item)) {
+            return false;
+        }
+        flushIfBatchFull();
+        return true;
+    }
+
+    public int size() {
+        return queue.size() + failed.size();
+    }
+
+    /**
+     * Items dropped because they could not be written on their own.
+     */
+    public long deadLettered() {
+        return deadLettered.get();
+    }
+
+    /**
+     * Writes everything buffered so far on the calling thread. Throws if the database
+     * looks unavailable; what was not written then stays buffered.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            if (!failed.isEmpty()) {
+                List<T> retry = failed;
+                failed = new ArrayList<>();
+                write(retry);
+            }
+            List<T> batch = new ArrayList<>(batchSize);
+            while (queue.drainTo(batch, batchSize) > 0) {
+                write(batch);
+                batch = new ArrayList<>(batchSize);
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Has the writer thread write everything buffered so far and waits up to
+     * {@code timeoutMillis} for it. Never throws: {@code false} if the write failed, took
+     * longer or the buffer is closed, in which case the items stay buffered.
+     */
+    public boolean awaitFlush(long timeoutMillis) {
+        Future<Boolean> flushed;
+        try {
+            flushed = scheduler.submit(this::flushQuietly);
+        } catch (RejectedExecutionException ex) {
+            return false;
+        }
+        try {
+            return flushed.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException | TimeoutException ex) {
+            return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        flushQuietly();
+    }
+
+    private void write(List<T> batch) {
+        try {
+            writer.accept(batch);
+            return;
+        } catch (RuntimeException ex) {
+            if (isOutage(ex)) {
+                failed = batch;
+                throw ex;
+            }
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                writer.accept(List.of(batch.get(i)));
+            } catch (RuntimeException ex) {
+                if (isOutage(ex)) {
+                    failed = new ArrayList<>(batch.subList(i, batch.size()));
+                    throw ex;
+                }
+                deadLettered.incrementAndGet();
+                log.warn("{}: dropped an item that cannot be written", name, ex);
+            }
+        }
+    }
+
+    /**
+     * Failures that say nothing about the items themselves: writing them again later may work.
+     * Anything else (constraint violations, bad data) fails the same way on every attempt.
+     */
+    private static boolean isOutage(RuntimeException ex) {
+        return ex instanceof TransientDataAccessException
+                || ex instanceof RecoverableDataAccessException
+                || ex instanceof DataAccessResourceFailureException
+                || ex instanceof TransactionException;
+    }
+
+    private void flushIfBatchFull() {
+        if (queue.size() >= batchSize && flushScheduled.compareAndSet(false, true)) {
+            scheduler.execute(() -> {
+                flushScheduled.set(false);
+                flushQuietly();
+            });
+        }
+    }
+
+    private boolean flushQuietly() {
+        try {
+            flush();
+            return true;
+        } catch (RuntimeException ex) {
+            log.warn("{}: batch write failed, {} items will be retried", name, size(), ex);
+            return false;
+        }
+    }
+}
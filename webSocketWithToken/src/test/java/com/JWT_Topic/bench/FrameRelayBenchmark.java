@@ -0,0 +1,64 @@
+package com.JWT_Topic.bench;
+
+import com.JWT_Topic.handler.BinaryFrameCodec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side cost of relaying one chat frame: the text path (decode, prefix with the
+ * sender, re-encode) against the binary path (validate header, stamp sender, one bulk copy).
+ * <p>
+ * Run with {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.JWT_Topic.bench.FrameRelayBenchmark}, or from the IDE.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrameRelayBenchmark {
+
+    @Param({"32", "512", "4096"})
+    int payloadBytes;
+
+    private byte[] textFrame;
+    private ByteBuffer binaryFrame;
+
+    @Setup
+    public void setUp() {
+        String payload = "x".repeat(payloadBytes);
+        textFrame = payload.getBytes(StandardCharsets.UTF_8);
+        binaryFrame = BinaryFrameCodec.encodeText(0L, 42L, 7L, payload);
+    }
+
+    @Benchmark
+    public byte[] textRelay() {
+        String payload = new String(textFrame, StandardCharsets.UTF_8);
+        String fullMessage = "[" + "merchant" + "] → " + payload;
+        return fullMessage.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public ByteBuffer binaryRelay() {
+        ByteBuffer frame = binaryFrame;
+        if (!BinaryFrameCodec.isValid(frame)) {
+            throw new IllegalStateException();
+        }
+        BinaryFrameCodec.writeSender(frame, 17L);
+        return ByteBuffer.allocate(frame.remaining()).put(frame.duplicate()).flip();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(FrameRelayBenchmark.class.getSimpleName())
+                .build())
+                .run();
+    }
+}
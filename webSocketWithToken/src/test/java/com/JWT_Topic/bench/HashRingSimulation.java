@@ -0,0 +1,77 @@
+package com.JWT_Topic.bench;
+
+import com.JWT_Topic.cluster.HashRing;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Places a million usernames on rings of different sizes and reports how evenly they
+ * spread (max / mean and relative standard deviation of keys per node) and how many
+ * keys change owner when a node joins or leaves; the ideal is about 1/N.
+ * <p>
+ * Run with {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.JWT_Topic.bench.HashRingSimulation}, or from the IDE.
+ */
+public class HashRingSimulation {
+
+    private static final int KEYS = 1_000_000;
+    private static final int[] NODES = {3, 5, 10, 20};
+    private static final int[] VIRTUAL_NODES = {1, 16, 128, 512};
+
+    public static void main(String[] args) {
+        String[] keys = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            keys[i] = "user" + i;
+        }
+
+        System.out.printf("%5s %6s %9s %9s %11s %12s%n", "nodes", "vnodes", "max/mean", "stddev", "moved(add)", "moved(remove)");
+        for (int nodes : NODES) {
+            for (int virtualNodes : VIRTUAL_NODES) {
+                simulate(keys, nodes, virtualNodes);
+            }
+        }
+    }
+
+    private static void simulate(String[] keys, int nodes, int virtualNodes) {
+        HashRing ring = new HashRing(virtualNodes);
+        for (int n = 0; n < nodes; n++) {
+            ring.add("node-" + n);
+        }
+        String[] owners = new String[keys.length];
+        Map<String, Integer> load = new HashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            owners[i] = ring.nodeFor(keys[i]);
+            load.merge(owners[i], 1, Integer::sum);
+        }
+
+        double mean = (double) keys.length / nodes;
+        int max = 0;
+        double variance = 0;
+        for (int n = 0; n < nodes; n++) {
+            int count = load.getOrDefault("node-" + n, 0);
+            max = Math.max(max, count);
+            variance += (count - mean) * (count - mean);
+        }
+        double stddev = Math.sqrt(variance / nodes) / mean;
+
+        ring.add("node-" + nodes);
+        double movedOnAdd = moved(ring, keys, owners);
+        ring.remove("node-" + nodes);
+        ring.remove("node-0");
+        double movedOnRemove = moved(ring, keys, owners);
+
+        System.out.printf("%5d %6d %9.3f %8.1f%% %10.2f%% %12.2f%%%n",
+                nodes, virtualNodes, max / mean, stddev * 100, movedOnAdd * 100, movedOnRemove * 100);
+    }
+
+    private static double moved(HashRing ring, String[] keys, String[] owners) {
+        int moved = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (!owners[i].equals(ring.nodeFor(keys[i]))) {
+                moved++;
+            }
+        }
+        return (double) moved / keys.length;
+    }
+}
@@ -0,0 +1,156 @@
+package com.JWT_Topic.bench;
+
+import com.JWT_Topic.entity.IdSequences;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Bulk insert throughput against a real MySQL, with the statements Hibernate issues for
+ * each id strategy:
+ * <ul>
+ *     <li>{@code identity}: one {@code INSERT} per row, reading back the generated key;</li>
+ *     <li>{@code pooled}: one sequence round trip per {@link IdSequences#ALLOCATION_SIZE}
+ *     ids and inserts sent as JDBC batches of the same size.</li>
+ * </ul>
+ * Both write to scratch tables that are dropped afterwards. Add
+ * {@code rewriteBatchedStatements=true} to the URL, as in application.yaml, or the driver
+ * sends batched rows one by one.
+ * <p>
+ * Run with {@code ./mvnw test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=com.JWT_Topic.bench.IdInsertBenchmark
+ * -Dexec.args="jdbc:mysql://localhost:3306/herfa?rewriteBatchedStatements=true user password 20000"}.
+ */
+public class IdInsertBenchmark {
+
+    private static final int BATCH_SIZE = IdSequences.ALLOCATION_SIZE;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) throws SQLException {
+        if (args.length < 3) {
+            System.err.println("usage: IdInsertBenchmark <jdbc-url> <user> <password> [rows]");
+            return;
+        }
+        int rows = args.length > 3 ? Integer.parseInt(args[3]) : 20_000;
+
+        try (Connection connection = DriverManager.getConnection(args[0], args[1], args[2])) {
+            setUp(connection);
+            try {
+                System.out.printf("%-9s %5s %8s %12s%n", "strategy", "round", "ms", "rows/s");
+                // The first round warms up the connection and the buffer pool
+                for (int round = 0; round < ROUNDS; round++) {
+                    report("identity", round, rows, identity(connection, rows));
+                    report("pooled", round, rows, pooled(connection, rows));
+                }
+            } finally {
+                tearDown(connection);
+            }
+        }
+    }
+
+    private static long identity(Connection connection, int rows) throws SQLException {
+        truncate(connection);
+        long start = System.nanoTime();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO bench_identity (username, email) VALUES (?, ?)", Statement.RETURN_GENERATED_KEYS)) {
+            for (int i = 0; i < rows; i++) {
+                insert.setString(1, "user" + i);
+                insert.setString(2, "user" + i + "@example.com");
+                insert.executeUpdate();
+                try (ResultSet keys = insert.getGeneratedKeys()) {
+                    keys.next();
+                }
+            }
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long pooled(Connection connection, int rows) throws SQLException {
+        truncate(connection);
+        long start = System.nanoTime();
+        connection.setAutoCommit(false);
+        try (PreparedStatement insert = connection.prepareStatement(
+                "INSERT INTO bench_pooled (id, username, email) VALUES (?, ?, ?)")) {
+            long next = 0;
+            long last = -1;
+            for (int i = 0; i < rows; i++) {
+                if (next > last) {
+                    last = reserve(connection);
+                    next = last - BATCH_SIZE + 1;
+                }
+                insert.setLong(1, next++);
+                insert.setString(2, "user" + i);
+                insert.setString(3, "user" + i + "@example.com");
+                insert.addBatch();
+                if ((i + 1) % BATCH_SIZE == 0) {
+                    insert.executeBatch();
+                }
+            }
+            insert.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Reserves the next block of ids the way the pooled table generator does: read and
+     * advance the row under a lock. Returns the highest id of the block.
+     */
+    private static long reserve(Connection connection) throws SQLException {
+        long value;
+        try (PreparedStatement select = connection.prepareStatement(
+                "SELECT next_val FROM bench_sequence WHERE sequence_name = 'bench' FOR UPDATE");
+             ResultSet rs = select.executeQuery()) {
+            rs.next();
+            value = rs.getLong(1);
+        }
+        try (PreparedStatement update = connection.prepareStatement(
+                "UPDATE bench_sequence SET next_val = ? WHERE sequence_name = 'bench'")) {
+            update.setLong(1, value + BATCH_SIZE);
+            update.executeUpdate();
+        }
+        return value;
+    }
+
+    private static void setUp(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("CREATE TABLE bench_identity (id BIGINT AUTO_INCREMENT PRIMARY KEY, " +
+                    "username VARCHAR(255) NOT NULL, email VARCHAR(320) NOT NULL)");
+            statement.execute("CREATE TABLE bench_pooled (id BIGINT PRIMARY KEY, " +
+                    "username VARCHAR(255) NOT NULL, email VARCHAR(320) NOT NULL)");
+            statement.execute("CREATE TABLE bench_sequence (sequence_name VARCHAR(255) PRIMARY KEY, next_val BIGINT)");
+        }
+    }
+
+    private static void truncate(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE TABLE bench_identity");
+            statement.execute("TRUNCATE TABLE bench_pooled");
+            statement.execute("DELETE FROM bench_sequence");
+            statement.execute("INSERT INTO bench_sequence VALUES ('bench', " + BATCH_SIZE + ")");
+        }
+    }
+
+    private static void tearDown(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS bench_identity");
+            statement.execute("DROP TABLE IF EXISTS bench_pooled");
+            statement.execute("DROP TABLE IF EXISTS bench_sequence");
+        }
+    }
+
+    private static void report(String strategy, int round, int rows, long nanos) {
+        double millis = nanos / 1e6;
+        System.out.printf("%-9s %5d %8.0f %12.0f%n", strategy, round, millis, rows / (millis / 1000));
+    }
+}
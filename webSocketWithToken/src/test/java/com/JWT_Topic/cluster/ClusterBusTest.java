@@ -0,0 +1,181 @@
+package com.JWT_Topic.cluster;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.BindException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ClusterBusTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void close() throws Exception {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            resources.get(i).close();
+        }
+    }
+
+    @Test
+    void inProcessNodesDeliverAndShareTheDirectory() throws Exception {
+        InProcessClusterBus.Hub hub = new InProcessClusterBus.Hub();
+        ClusterBus a = open(new InProcessClusterBus("a", hub));
+        ClusterBus b = open(new InProcessClusterBus("b", hub));
+
+        assertDelivers(a, b);
+        BusSessionDirectory directoryA = assertDirectoryFollows(a, b);
+
+        // A node that comes up later gets the current users with the SYNC sent on peer-up
+        directoryA.online("carol");
+        ClusterBus c = open(new InProcessClusterBus("c", hub));
+        BusSessionDirectory directoryC = directory(c);
+        await(() -> directoryC.remoteNodes("carol").contains("a"));
+
+        // A node that goes away is forgotten, and the change is reported
+        Set<String> changed = ConcurrentHashMap.newKeySet();
+        directoryC.subscribe(changed::add);
+        a.close();
+        await(() -> directoryC.remoteNodes("carol").isEmpty());
+        assertTrue(changed.contains("carol"));
+    }
+
+    @Test
+    void tcpNodesDeliverShareTheDirectoryAndReconnect() throws Exception {
+        int portA = freePort();
+        int portB = freePort();
+        TcpClusterBus a = open(tcp("a", portA, "b", portB));
+        AtomicInteger linksToB = new AtomicInteger();
+        a.subscribe(new ClusterBus.Listener() {
+            @Override
+            public void onMessage(String node, ClusterMessage message) {
+            }
+
+            @Override
+            public void onPeerUp(String node) {
+                linksToB.incrementAndGet();
+            }
+        });
+        TcpClusterBus b = open(tcp("b", portB, "a", portA));
+
+        assertDelivers(a, b);
+        BusSessionDirectory directoryA = assertDirectoryFollows(a, b);
+
+        // Restart b on the same port: a notices, forgets its users, reconnects and syncs
+        directoryA.online("carol");
+        int links = linksToB.get();
+        b.close();
+        TcpClusterBus restarted = open(rebind("b", portB, "a", portA));
+        BusSessionDirectory directoryB = directory(restarted);
+        await(() -> linksToB.get() > links);
+        await(() -> directoryB.remoteNodes("carol").contains("a"));
+
+        BlockingQueue<ClusterMessage> received = inbox(restarted);
+        assertTrue(a.send("b", ClusterMessage.deliver("bob", 42L, "after restart", null)));
+        ClusterMessage message = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(message);
+        assertEquals("after restart", message.line());
+    }
+
+    private void assertDelivers(ClusterBus from, ClusterBus to) throws InterruptedException {
+        BlockingQueue<ClusterMessage> received = inbox(to);
+        byte[] frame = {1, 2, 3};
+        assertTrue(from.send(to.localNode(), ClusterMessage.deliver("bob", 7L, "hello", frame)));
+
+        ClusterMessage message = received.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+        assertNotNull(message);
+        assertEquals(ClusterMessage.Type.DELIVER, message.type());
+        assertEquals("bob", message.username());
+        assertEquals(7L, message.id());
+        assertEquals("hello", message.line());
+        assertArrayEquals(frame, message.frame());
+    }
+
+    /**
+     * Announces a user on {@code from} with JOIN and LEAVE and checks {@code to} follows.
+     */
+    private BusSessionDirectory assertDirectoryFollows(ClusterBus from, ClusterBus to) throws Exception {
+        BusSessionDirectory directoryFrom = directory(from);
+        BusSessionDirectory directoryTo = directory(to);
+
+        directoryFrom.online("alice");
+        await(() -> directoryTo.remoteNodes("alice").equals(Set.of(from.localNode())));
+        directoryFrom.offline("alice");
+        await(() -> directoryTo.remoteNodes("alice").isEmpty());
+        return directoryFrom;
+    }
+
+    private BusSessionDirectory directory(ClusterBus bus) {
+        return open(new BusSessionDirectory(bus, TIMEOUT_MILLIS));
+    }
+
+    private static BlockingQueue<ClusterMessage> inbox(ClusterBus bus) {
+        BlockingQueue<ClusterMessage> received = new LinkedBlockingQueue<>();
+        bus.subscribe((node, message) -> {
+            if (message.type() == ClusterMessage.Type.DELIVER) {
+                received.add(message);
+            }
+        });
+        return received;
+    }
+
+    private static TcpClusterBus tcp(String node, int port, String peer, int peerPort) throws IOException {
+        return new TcpClusterBus(node, new InetSocketAddress("127.0.0.1", port),
+                Map.of(peer, new InetSocketAddress("127.0.0.1", peerPort)), 1000);
+    }
+
+    /**
+     * The old listener's port is released once its accept thread has left, shortly after close().
+     */
+    private static TcpClusterBus rebind(String node, int port, String peer, int peerPort) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (true) {
+            try {
+                return tcp(node, port, peer, peerPort);
+            } catch (BindException ex) {
+                if (System.nanoTime() - deadline >= 0) {
+                    throw ex;
+                }
+                Thread.sleep(10);
+            }
+        }
+    }
+
+    private <T extends AutoCloseable> T open(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+}
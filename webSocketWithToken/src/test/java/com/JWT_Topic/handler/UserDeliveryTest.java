@@ -0,0 +1,132 @@
+package com.JWT_Topic.handler;
+
+import com.JWT_Topic.cluster.BusSessionDirectory;
+import com.JWT_Topic.cluster.ClusterBus;
+import com.JWT_Topic.cluster.InProcessClusterBus;
+import com.JWT_Topic.service.Envelope;
+import com.JWT_Topic.service.MappedOfflineMessageLog;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two nodes in one JVM, each with its own offline store, so it is visible which node stored a message.
+ */
+class UserDeliveryTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    @TempDir
+    Path directory;
+
+    private final InProcessClusterBus.Hub hub = new InProcessClusterBus.Hub();
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    @AfterEach
+    void close() throws Exception {
+        for (int i = resources.size() - 1; i >= 0; i--) {
+            resources.get(i).close();
+        }
+    }
+
+    @Test
+    void aForwardTheOtherNodeAcknowledgesIsNotStoredAgain() throws Exception {
+        Node a = node("a", TIMEOUT_MILLIS);
+        Node b = node("b", TIMEOUT_MILLIS);
+        b.delivery();
+        b.directory.online("bob");
+        await(() -> a.directory.remoteNodes("bob").contains("b"));
+
+        assertTrue(a.delivery().deliver("bob", 1L, "hello", null));
+
+        // Nobody is connected on b either, so b stores it and acknowledges
+        await(() -> a.delivery.awaitingAck() == 0);
+        assertEquals(List.of(new Envelope(1L, "hello")), b.log.poll("bob", 10));
+        a.delivery.close();
+        assertEquals(List.of(), a.log.poll("bob", 10));
+    }
+
+    @Test
+    void aForwardNobodyAcknowledgesIsStoredByTheSender() throws Exception {
+        Node a = node("a", 50);
+        Node b = node("b", 50);
+        // b runs no delivery listener, so it never acknowledges
+        b.directory.online("bob");
+        await(() -> a.directory.remoteNodes("bob").contains("b"));
+
+        assertTrue(a.delivery().deliver("bob", 2L, "hello", null));
+
+        List<Envelope> stored = new ArrayList<>();
+        await(() -> stored.addAll(a.log.poll("bob", 10)));
+        assertEquals(List.of(new Envelope(2L, "hello")), stored);
+    }
+
+    @Test
+    void aForwardToANodeThatGoesDownIsStoredWithoutWaitingForTheTimeout() throws Exception {
+        Node a = node("a", TIMEOUT_MILLIS * 10);
+        Node b = node("b", TIMEOUT_MILLIS * 10);
+        b.directory.online("bob");
+        await(() -> a.directory.remoteNodes("bob").contains("b"));
+
+        assertTrue(a.delivery().deliver("bob", 3L, "hello", null));
+        b.bus.close();
+
+        List<Envelope> stored = new ArrayList<>();
+        await(() -> stored.addAll(a.log.poll("bob", 10)));
+        assertEquals(List.of(new Envelope(3L, "hello")), stored);
+    }
+
+    private Node node(String name, long ackTimeoutMillis) {
+        ClusterBus bus = open(new InProcessClusterBus(name, hub));
+        BusSessionDirectory sessionDirectory = open(new BusSessionDirectory(bus, TIMEOUT_MILLIS));
+        MappedOfflineMessageLog log = open(new MappedOfflineMessageLog(directory.resolve(name), 4096));
+        return new Node(bus, sessionDirectory, log, ackTimeoutMillis);
+    }
+
+    private <T extends AutoCloseable> T open(T resource) {
+        resources.add(resource);
+        return resource;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TIMEOUT_MILLIS);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0, "condition not met in time");
+            Thread.sleep(10);
+        }
+    }
+
+    private final class Node {
+        final ClusterBus bus;
+        final BusSessionDirectory directory;
+        final MappedOfflineMessageLog log;
+        final long ackTimeoutMillis;
+        UserDelivery delivery;
+
+        Node(ClusterBus bus, BusSessionDirectory directory, MappedOfflineMessageLog log, long ackTimeoutMillis) {
+            this.bus = bus;
+            this.directory = directory;
+            this.log = log;
+            this.ackTimeoutMillis = ackTimeoutMillis;
+        }
+
+        UserDelivery delivery() {
+            if (delivery == null) {
+                OfflineDelivery offline = new OfflineDelivery(log, new SimpleMeterRegistry());
+                delivery = open(new UserDelivery(new SessionRegistry(5, directory), offline, directory, bus,
+                        ackTimeoutMillis));
+            }
+            return delivery;
+        }
+    }
+}
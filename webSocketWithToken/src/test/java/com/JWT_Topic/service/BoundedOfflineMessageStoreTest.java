@@ -0,0 +1,100 @@
+package com.JWT_Topic.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BoundedOfflineMessageStoreTest {
+
+    private static final long HOUR = 3_600_000;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void countsMessagesAlreadyInTheStoreAtStartup() {
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(directory, 4096)) {
+            log.append("bob", new Envelope(1, "one"));
+            log.append("bob", new Envelope(2, "two"));
+
+            try (BoundedOfflineMessageStore store = bounded(log, 3)) {
+                assertTrue(store.append("bob", new Envelope(3, "three")).accepted());
+                assertFalse(store.append("bob", new Envelope(4, "four")).accepted());
+
+                store.poll("bob", 1);
+                assertTrue(store.append("bob", new Envelope(4, "four")).accepted());
+            }
+        }
+    }
+
+    @Test
+    void takesBackPolledMessagesOverTheQuotaInTheirOldPlace() {
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(directory, 4096);
+             BoundedOfflineMessageStore store = bounded(log, 2)) {
+            store.append("bob", new Envelope(1, "one"));
+            store.append("bob", new Envelope(2, "two"));
+            List<Envelope> polled = store.poll("bob", 1);
+            store.append("bob", new Envelope(3, "three"));
+
+            assertTrue(store.putBack("bob", polled.get(0)).accepted());
+            assertEquals(List.of("one", "two", "three"), store.poll("bob", 10).stream().map(Envelope::line).toList());
+        }
+    }
+
+    @Test
+    void doesNotChargeForACopyOfAWaitingMessageOrAFailedWrite() {
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(directory, 4096)) {
+            boolean[] failing = {false};
+            OfflineMessageStore flaky = new OfflineMessageStore() {
+                @Override
+                public Outcome append(String recipient, Envelope message) {
+                    if (failing[0]) {
+                        throw new IllegalStateException("disk full");
+                    }
+                    return log.append(recipient, message);
+                }
+
+                @Override
+                public List<Envelope> poll(String recipient, int max) {
+                    return log.poll(recipient, max);
+                }
+
+                @Override
+                public void expire(long cutoffMillis, EvictionListener listener) {
+                    log.expire(cutoffMillis, listener);
+                }
+
+                @Override
+                public void usage(UsageListener listener) {
+                    log.usage(listener);
+                }
+            };
+
+            try (BoundedOfflineMessageStore store = bounded(flaky, 2)) {
+                assertEquals(OfflineMessageStore.Outcome.STORED, store.append("bob", new Envelope(1, "one")));
+                assertEquals(OfflineMessageStore.Outcome.DUPLICATE, store.append("bob", new Envelope(1, "one")));
+                assertEquals(OfflineMessageStore.Outcome.DUPLICATE, store.putBack("bob", new Envelope(1, "one")));
+
+                failing[0] = true;
+                assertThrows(IllegalStateException.class, () -> store.append("bob", new Envelope(2, "two")));
+                failing[0] = false;
+
+                assertEquals(OfflineMessageStore.Outcome.STORED, store.append("bob", new Envelope(2, "two")));
+                assertEquals(OfflineMessageStore.Outcome.REFUSED, store.append("bob", new Envelope(3, "three")));
+            }
+        }
+    }
+
+    private static BoundedOfflineMessageStore bounded(OfflineMessageStore delegate, int maxPerRecipient) {
+        return new BoundedOfflineMessageStore(delegate, new SimpleMeterRegistry(),
+                maxPerRecipient, Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE, HOUR, HOUR);
+    }
+}
@@ -0,0 +1,170 @@
+package com.JWT_Topic.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MappedOfflineMessageLogTest {
+
+    /** Ten records of {@link #record(int)} fill one segment. */
+    private static final int SEGMENT_BYTES = 1024;
+
+    @TempDir
+    Path dir;
+
+    private long nextId = 1;
+
+    @Test
+    void pollsEachRecipientInIdOrder() {
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(dir, SEGMENT_BYTES)) {
+            append(log, "alice", "a1");
+            append(log, "bob", "b1");
+            append(log, "alice", "a2");
+            append(log, "alice", "a3");
+
+            assertEquals(List.of("a1", "a2"), lines(log.poll("alice", 2)));
+            assertEquals(List.of("a3"), lines(log.poll("alice", 10)));
+            assertEquals(List.of(), lines(log.poll("alice", 10)));
+            assertEquals(List.of("b1"), lines(log.poll("bob", 10)));
+        }
+    }
+
+    @Test
+    void putsAMessageBackInItsOldPlaceAndStoresEachIdOnce() {
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(dir, SEGMENT_BYTES)) {
+            append(log, "alice", "a1");
+            append(log, "alice", "a2");
+            append(log, "alice", "a3");
+            List<Envelope> delivered = log.poll("alice", 2);
+            append(log, "alice", "a4");
+
+            // The delivery failed: both go back ahead of the newer messages, one of them twice
+            for (Envelope message : delivered) {
+                log.append("alice", message);
+            }
+            assertEquals(OfflineMessageStore.Outcome.DUPLICATE, log.append("alice", delivered.get(0)));
+
+            assertEquals(List.of("a1", "a2", "a3", "a4"), lines(log.poll("alice", 10)));
+        }
+    }
+
+    @Test
+    void recoversUndeliveredMessagesAfterCrash() {
+        MappedOfflineMessageLog crashed = new MappedOfflineMessageLog(dir, SEGMENT_BYTES);
+        for (int i = 0; i < 25; i++) {
+            append(crashed, "alice", "m" + i);
+        }
+        assertEquals(List.of("m0", "m1", "m2"), lines(crashed.poll("alice", 3)));
+        crashed.flush();
+        // No close(): no snapshot, the delivered flags in the segments are all there is
+
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(dir, SEGMENT_BYTES)) {
+            assertFalse(Files.exists(dir.resolve("index.snap")));
+            List<String> expected = new ArrayList<>();
+            for (int i = 3; i < 25; i++) {
+                expected.add("m" + i);
+            }
+            assertEquals(expected, lines(log.poll("alice", 100)));
+            append(log, "alice", "next");
+            assertEquals(List.of("next"), lines(log.poll("alice", 100)));
+        }
+    }
+
+    @Test
+    void compactsSegmentsBelowAQuarterLiveAndKeepsOrder() throws IOException {
+        MappedOfflineMessageLog log = new MappedOfflineMessageLog(dir, SEGMENT_BYTES);
+        // Segments 0-2 each hold nine records for alice and one for bob
+        for (int i = 0; i < 30; i++) {
+            append(log, i % 10 == 0 ? "b" : "a", record(i));
+        }
+        assertEquals(3, segmentFiles());
+
+        assertEquals(27, lines(log.poll("a", 100)).size());
+        // Segments 0 and 1 dropped to 1/10 live and were copied to the head of the log
+        assertFalse(Files.exists(dir.resolve("0000000000.seg")));
+        assertFalse(Files.exists(dir.resolve("0000000001.seg")));
+        log.flush();
+
+        // A restart that scans the segments restores the order from the message ids
+        try (MappedOfflineMessageLog reopened = new MappedOfflineMessageLog(dir, SEGMENT_BYTES)) {
+            assertEquals(List.of(record(0), record(10), record(20)), lines(reopened.poll("b", 100)));
+        }
+        assertEquals(List.of(record(0), record(10), record(20)), lines(log.poll("b", 100)));
+    }
+
+    @Test
+    void snapshotRestoresTheSameStateAsAScan() throws IOException {
+        Path clean = Files.createDirectory(dir.resolve("clean"));
+        Path crashed = Files.createDirectory(dir.resolve("crashed"));
+        MappedOfflineMessageLog closed = new MappedOfflineMessageLog(clean, SEGMENT_BYTES);
+        MappedOfflineMessageLog unclosed = new MappedOfflineMessageLog(crashed, SEGMENT_BYTES);
+        for (MappedOfflineMessageLog log : List.of(closed, unclosed)) {
+            for (int i = 0; i < 40; i++) {
+                append(log, i % 3 == 0 ? "carol" : "dave", record(i));
+            }
+            log.poll("dave", 12);
+        }
+        closed.close();
+        unclosed.flush();
+        assertTrue(Files.exists(clean.resolve("index.snap")));
+
+        try (MappedOfflineMessageLog fromSnapshot = new MappedOfflineMessageLog(clean, SEGMENT_BYTES);
+             MappedOfflineMessageLog fromScan = new MappedOfflineMessageLog(crashed, SEGMENT_BYTES)) {
+            // A snapshot is used once
+            assertFalse(Files.exists(clean.resolve("index.snap")));
+            assertEquals(lines(fromScan.poll("carol", 100)), lines(fromSnapshot.poll("carol", 100)));
+            assertEquals(lines(fromScan.poll("dave", 100)), lines(fromSnapshot.poll("dave", 100)));
+        }
+    }
+
+    @Test
+    void ignoresASnapshotOlderThanTheSegments() throws IOException {
+        MappedOfflineMessageLog first = new MappedOfflineMessageLog(dir, SEGMENT_BYTES);
+        append(first, "erin", "before");
+        first.close();
+        Path saved = Files.copy(dir.resolve("index.snap"), dir.resolve("saved.snap"));
+
+        MappedOfflineMessageLog second = new MappedOfflineMessageLog(dir, SEGMENT_BYTES);
+        append(second, "erin", "after");
+        second.flush();
+        // Crash, then a stale snapshot shows up again
+        Files.move(saved, dir.resolve("index.snap"), StandardCopyOption.REPLACE_EXISTING);
+
+        try (MappedOfflineMessageLog log = new MappedOfflineMessageLog(dir, SEGMENT_BYTES)) {
+            assertEquals(List.of("before", "after"), lines(log.poll("erin", 10)));
+        }
+    }
+
+    private void append(MappedOfflineMessageLog log, String recipient, String line) {
+        log.append(recipient, new Envelope(nextId++, line));
+    }
+
+    private static List<String> lines(List<Envelope> messages) {
+        return messages.stream().map(Envelope::line).toList();
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(p -> p.getFileName().toString().endsWith(".seg")).count();
+        }
+    }
+
+    /**
+     * A payload that makes the record exactly 101 bytes with a one-letter recipient.
+     */
+    private static String record(int i) {
+        String prefix = "m" + i + "-";
+        return prefix + "x".repeat(77 - prefix.length());
+    }
+}
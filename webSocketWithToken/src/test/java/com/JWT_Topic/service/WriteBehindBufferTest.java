@@ -0,0 +1,96 @@
+package com.JWT_Topic.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DuplicateKeyException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WriteBehindBufferTest {
+
+    private static final long NEVER = 3_600_000;
+
+    @Test
+    void dropsOnlyTheItemThatCannotBeWritten() {
+        List<Integer> written = new ArrayList<>();
+        Consumer<List<Integer>> writer = batch -> {
+            if (batch.contains(3)) {
+                throw new DuplicateKeyException("duplicate 3");
+            }
+            written.addAll(batch);
+        };
+        try (WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<>("test", 10, 100, NEVER, writer)) {
+            for (int i = 1; i <= 5; i++) {
+                assertTrue(buffer.add(i, 0));
+            }
+            buffer.flush();
+
+            assertEquals(List.of(1, 2, 4, 5), written);
+            assertEquals(1, buffer.deadLettered());
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    @Test
+    void keepsEverythingWhileTheDatabaseIsDown() {
+        List<Integer> written = new ArrayList<>();
+        boolean[] down = {true};
+        Consumer<List<Integer>> writer = batch -> {
+            if (down[0]) {
+                throw new DataAccessResourceFailureException("no connection");
+            }
+            written.addAll(batch);
+        };
+        try (WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<>("test", 2, 100, NEVER, writer)) {
+            for (int i = 1; i <= 5; i++) {
+                buffer.add(i, 0);
+            }
+            assertThrows(DataAccessResourceFailureException.class, buffer::flush);
+            assertEquals(5, buffer.size());
+
+            down[0] = false;
+            buffer.flush();
+
+            assertEquals(List.of(1, 2, 3, 4, 5), written);
+            assertEquals(0, buffer.deadLettered());
+        }
+    }
+
+    @Test
+    void awaitFlushWritesOnTheWriterThreadAndReportsAnOutage() {
+        List<String> writers = new ArrayList<>();
+        boolean[] down = {true};
+        Consumer<List<Integer>> writer = batch -> {
+            if (down[0]) {
+                throw new DataAccessResourceFailureException("no connection");
+            }
+            writers.add(Thread.currentThread().getName());
+        };
+        try (WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<>("test", 10, 100, NEVER, writer)) {
+            buffer.add(1, 0);
+            assertFalse(buffer.awaitFlush(1000));
+            assertEquals(1, buffer.size());
+
+            down[0] = false;
+            assertTrue(buffer.awaitFlush(1000));
+            assertEquals(List.of("test-writer"), writers);
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    @Test
+    void refusesWhenFullInsteadOfBlocking() {
+        try (WriteBehindBuffer<Integer> buffer = new WriteBehindBuffer<>("test", 10, 2, NEVER, batch -> { })) {
+            assertTrue(buffer.add(1, 0));
+            assertTrue(buffer.add(2, 0));
+            assertFalse(buffer.add(3, 10));
+        }
+    }
+}